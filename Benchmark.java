@@ -0,0 +1,259 @@
+//Benchmark.java
+/**
+ * Compare the speed and quality of SOM training strategies.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * This program trains maps on a synthetic dataset
+ * of Gaussian clusters and reports the training time
+ * and quantization error of each strategy so that
+ * the alternatives can be compared to the sequential
+ * online training. Usage:
+ *
+ * java Benchmark [rows] [columns] [xDim] [yDim] [epochs] [threads]
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.io.*;
+import java.util.*;
+public class Benchmark
+{
+	// Settings for the benchmark
+	private int rows = 20000;
+	private int columns = 10;
+	private int xDim = 10;
+	private int yDim = 10;
+	private int epochs = 5;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+
+	/**
+	 * Create a synthetic dataset.
+	 * The rows are drawn from a number of
+	 * Gaussian clusters with random centers so
+	 * that the map has some structure to find.
+	 *
+	 * @param seed The seed for the random numbers
+	 *
+	 * @return The synthetic dataset
+	 *
+	 * */
+	public double [][] makeData(long seed)
+	{
+		return makeData(seed, rows);
+	}
+
+
+	/**
+	 * Create a synthetic dataset with a given number of rows.
+	 * The first rows are the same for every count, so the
+	 * rows after them can be held out from training.
+	 *
+	 * @param seed The seed for the random numbers
+	 * @param count The number of rows
+	 *
+	 * @return The synthetic dataset
+	 *
+	 * */
+	public double [][] makeData(long seed, int count)
+	{
+		Random random = new Random(seed);
+		int clusters = 8;
+		double [][] centers = new double[clusters][columns];
+		for(int i = 0; i < clusters; i++)
+		{
+			for(int j = 0; j < columns; j++)
+			{
+				centers[i][j] = random.nextDouble() * 10;
+			}
+		}
+		double [][] data = new double[count][columns];
+		for(int i = 0; i < count; i++)
+		{
+			double [] center = centers[random.nextInt(clusters)];
+			for(int j = 0; j < columns; j++)
+			{
+				data[i][j] = center[j] + random.nextGaussian();
+			}
+		}
+		return data;
+	}
+
+
+	/**
+	 * Print the result of one strategy.
+	 *
+	 * @param name The name of the strategy
+	 * @param som The trained map
+	 * @param nanos The training time in nanoseconds
+	 * @param baseline The training time of the sequential
+	 * strategy in nanoseconds
+	 *
+	 * */
+	private void report(String name, SOM som, long nanos, long baseline)
+	{
+		System.out.printf("%-24s %10.1f ms %8.2fx   QE %.4f%n",
+			name, nanos / 1e6, (double)baseline / nanos, som.quantizationError());
+	}
+
+
+	/**
+	 * Print the scoring speed of a Codebook on held-out rows.
+	 *
+	 * @param name The name of the Codebook
+	 * @param codebook The Codebook
+	 * @param exact The exact Codebook
+	 * @param heldOut The rows to score
+	 * @param baseline The scoring time of the exact Codebook
+	 * in nanoseconds, or zero for the exact Codebook itself
+	 *
+	 * @return The scoring time in nanoseconds
+	 *
+	 * */
+	private long reportScoring(String name, Codebook codebook, Codebook exact, double [][] heldOut, long baseline)
+	{
+		int [] nodes = new int[heldOut.length];
+		double [] distances = new double[heldOut.length];
+		// Warm up, then keep the fastest of a few passes
+		long nanos = Long.MAX_VALUE;
+		for(int pass = 0; pass < 5; pass++)
+		{
+			long start = System.nanoTime();
+			for(int from = 0; from < heldOut.length; from += 256)
+			{
+				int to = Math.min(heldOut.length, from + 256);
+				codebook.score(heldOut, from, to, nodes, distances);
+			}
+			nanos = Math.min(nanos, System.nanoTime() - start);
+		}
+		ByteArrayOutputStream model = new ByteArrayOutputStream();
+		try
+		{
+			codebook.save(new DataOutputStream(model));
+		}
+		catch(IOException ioe)
+		{
+			throw new IllegalStateException(ioe);
+		}
+		System.out.printf("%-24s %10.1f ms %8.2fx   agreement %.4f, model %d bytes%n",
+			name, nanos / 1e6, baseline > 0 ? (double)baseline / nanos : 1.0,
+			codebook.agreement(exact, heldOut), model.size());
+		return nanos;
+	}
+
+
+	/**
+	 * Run all the strategies and print the results.
+	 *
+	 * */
+	public void run()
+	{
+		System.out.printf("%d rows, %d columns, %dx%d map, %d epochs, %d threads%n",
+			rows, columns, xDim, yDim, epochs, threads);
+
+		// All the strategies share one Dataset and its scaled view,
+		// and a fifth as many rows again are held out for scoring
+		double [][] rowsAndHeldOut = makeData(1, rows + rows / 5);
+		Dataset data = Dataset.copyOf(Arrays.copyOf(rowsAndHeldOut, rows));
+		double [][] heldOut = Arrays.copyOfRange(rowsAndHeldOut, rows, rowsAndHeldOut.length);
+		data.scaled();
+
+		// Sequential online training
+		SOM sequential = new SOM(data, xDim, yDim, epochs);
+		long start = System.nanoTime();
+		sequential.train();
+		long baseline = System.nanoTime() - start;
+		report("sequential", sequential, baseline, baseline);
+
+		// Lock-free parallel online training
+		SOM parallel = new SOM(data, xDim, yDim, epochs);
+		start = System.nanoTime();
+		parallel.train(threads);
+		report("parallel (" + threads + " threads)", parallel, System.nanoTime() - start, baseline);
+
+		// Sequential training with the other neighborhood functions
+		for(Neighborhood kernel : new Neighborhood[]{Neighborhood.GAUSSIAN, Neighborhood.TRUNCATED_GAUSSIAN})
+		{
+			SOM som = new SOM(data, xDim, yDim, epochs);
+			som.setKernel(kernel);
+			start = System.nanoTime();
+			som.train();
+			report(kernel.toString().toLowerCase(), som, System.nanoTime() - start, baseline);
+		}
+
+		// Sequential training with the rows presented in cache-friendly orders
+		for(Sampling sampling : new Sampling[]{Sampling.SHUFFLED_BLOCKS, Sampling.BMU_GROUPED})
+		{
+			SOM som = new SOM(data, xDim, yDim, epochs);
+			som.setSampling(sampling);
+			start = System.nanoTime();
+			som.train();
+			report(sampling.toString().toLowerCase(), som, System.nanoTime() - start, baseline);
+		}
+
+		// Batch training on shards of the data in this process
+		int shards = Math.max(2, threads);
+		DistributedSOM distributed = new DistributedSOM(LocalTransport.split(data, shards), xDim, yDim, epochs);
+		start = System.nanoTime();
+		try
+		{
+			distributed.train();
+		}
+		catch(IOException ioe)
+		{
+			throw new IllegalStateException(ioe);
+		}
+		long nanos = System.nanoTime() - start;
+		System.out.printf("%-24s %10.1f ms %8.2fx   QE %.4f%n", "distributed (" + shards + " shards)",
+			nanos / 1e6, (double)baseline / nanos, distributed.quantizationError());
+
+		// Scoring held-out rows with the exact and quantized weights
+		if(heldOut.length > 0)
+		{
+			Codebook exact = sequential.getCodebook();
+			long scoring = reportScoring("score double", exact, exact, heldOut, 0);
+			reportScoring("score int16, 4 candidates", exact.quantize(16, 4), exact, heldOut, scoring);
+			reportScoring("score int8, 8 candidates", exact.quantize(8, 8), exact, heldOut, scoring);
+			reportScoring("score int8, 1 candidate", exact.quantize(8, 1), exact, heldOut, scoring);
+		}
+	}
+
+
+	// Main method
+	public static void main(String [] args)
+	{
+		Benchmark benchmark = new Benchmark();
+		try
+		{
+			if(args.length > 0) benchmark.rows = Integer.parseInt(args[0]);
+			if(args.length > 1) benchmark.columns = Integer.parseInt(args[1]);
+			if(args.length > 2) benchmark.xDim = Integer.parseInt(args[2]);
+			if(args.length > 3) benchmark.yDim = Integer.parseInt(args[3]);
+			if(args.length > 4) benchmark.epochs = Integer.parseInt(args[4]);
+			if(args.length > 5) benchmark.threads = Integer.parseInt(args[5]);
+		}
+		catch(NumberFormatException nfe)
+		{
+			System.err.println("Usage: java Benchmark [rows] [columns] [xDim] [yDim] [epochs] [threads]");
+			return;
+		}
+		benchmark.run();
+	}
+}
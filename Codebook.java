@@ -0,0 +1,611 @@
+//Codebook.java
+/**
+ * Trained weights of a self-organizing map for scoring.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * A Codebook holds everything needed to assign new
+ * observations to the nodes of a trained map: the map
+ * dimensions, the weights of every node and the centers
+ * and scales used to standardize the training data. It
+ * is immutable and can be saved to and loaded from a
+ * binary model file, so scoring does not need the
+ * training data. Usage for training and saving a model:
+ *
+ * java Codebook data.csv xDim yDim epochs model.bin
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.io.*;
+public class Codebook
+{
+	// Identifies kohonen4j model files ("K4JC")
+	static final int MAGIC = 0x4B344A43;
+	// Version of the model file format
+	static final int VERSION = 1;
+	// Types of codebook stored in a model file
+	static final byte TYPE_DOUBLE = 0;
+	static final byte TYPE_INT8 = 1;
+	static final byte TYPE_INT16 = 2;
+	// Number of nodes compared with a batch of rows at a time
+	private static final int NODE_BLOCK = 64;
+
+	// X dimension of the map
+	private final int xDim;
+	// Y dimension of the map
+	private final int yDim;
+	// Number of variables
+	private final int columns;
+	// Weights of the nodes, one row of columns after another
+	private final double [] weights;
+	// Centers and scales for standardizing new observations
+	private final double [] center;
+	private final double [] scale;
+
+
+	/**
+	 * Constructor for the Codebook.
+	 * The arrays are copied.
+	 *
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 * @param weights The scaled weights of each node
+	 * @param center The value subtracted from each variable
+	 * when scaling
+	 * @param scale The value each centered variable was
+	 * divided by when scaling
+	 *
+	 * */
+	public Codebook(int xDim, int yDim, double [][] weights, double [] center, double [] scale)
+	{
+		if(xDim <= 0 || yDim <= 0 || weights.length != xDim * yDim
+			|| center.length != weights[0].length || scale.length != weights[0].length)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.xDim = xDim;
+		this.yDim = yDim;
+		this.columns = center.length;
+		this.weights = new double[weights.length * this.columns];
+		for(int j = 0; j < weights.length; j++)
+		{
+			if(weights[j].length != this.columns)
+			{
+				throw new IllegalArgumentException();
+			}
+			System.arraycopy(weights[j], 0, this.weights, j * this.columns, this.columns);
+		}
+		this.center = center.clone();
+		this.scale = scale.clone();
+	}
+
+
+	Codebook(int xDim, int yDim, double [] weights, double [] center, double [] scale)
+	{
+		this.xDim = xDim;
+		this.yDim = yDim;
+		this.columns = center.length;
+		this.weights = weights;
+		this.center = center;
+		this.scale = scale;
+	}
+
+
+	/**
+	 * Getter method for xDim.
+	 *
+	 * @return the X dimension of the map.
+	 *
+	 * */
+	public int getXDim()
+	{
+		return this.xDim;
+	}
+
+
+	/**
+	 * Getter method for yDim.
+	 *
+	 * @return the Y dimension of the map.
+	 *
+	 * */
+	public int getYDim()
+	{
+		return this.yDim;
+	}
+
+
+	/**
+	 * Getter method for columns.
+	 *
+	 * @return the number of variables.
+	 *
+	 * */
+	public int getColumns()
+	{
+		return this.columns;
+	}
+
+
+	/**
+	 * Getter method for the number of nodes.
+	 *
+	 * @return the number of nodes on the map.
+	 *
+	 * */
+	public int getNodes()
+	{
+		return this.xDim * this.yDim;
+	}
+
+
+	/**
+	 * Getter method for the weights of a node.
+	 *
+	 * @param node The node
+	 *
+	 * @return A copy of the scaled weights of the node
+	 *
+	 * */
+	public double [] getWeights(int node)
+	{
+		double [] result = new double[this.columns];
+		System.arraycopy(this.weights, node * this.columns, result, 0, this.columns);
+		return result;
+	}
+
+
+	/**
+	 * Getter method for a column center.
+	 *
+	 * @param column The column position
+	 *
+	 * @return The value subtracted from the column when scaling
+	 *
+	 * */
+	public double getCenter(int column)
+	{
+		return this.center[column];
+	}
+
+
+	/**
+	 * Getter method for a column scale.
+	 *
+	 * @param column The column position
+	 *
+	 * @return The value the centered column was divided by
+	 *
+	 * */
+	public double getScale(int column)
+	{
+		return this.scale[column];
+	}
+
+
+	/**
+	 * Find the nearest node to an observation.
+	 *
+	 * @param row The observation in the units of
+	 * the training data
+	 *
+	 * @return The index of the nearest node
+	 *
+	 * */
+	public int bmu(double [] row)
+	{
+		int [] nodes = new int[1];
+		score(new double[][]{row}, 0, 1, nodes, new double[1]);
+		return nodes[0];
+	}
+
+
+	/**
+	 * Find the nearest nodes to a batch of observations.
+	 * The rows are scaled into one buffer, and the nodes are
+	 * compared with every row a block at a time, so each
+	 * block of weights is read from memory once per batch
+	 * rather than once per row.
+	 *
+	 * @param rows The observations in the units of
+	 * the training data
+	 * @param from The first row to score
+	 * @param to One past the last row to score
+	 * @param nodes The nearest node for each row,
+	 * starting at position zero
+	 * @param distances The squared distance from each
+	 * row to its node, starting at position zero
+	 *
+	 * */
+	public void score(double [][] rows, int from, int to, int [] nodes, double [] distances)
+	{
+		int batch = to - from;
+		double [] scaled = scale(rows, from, to);
+		for(int i = 0; i < batch; i++)
+		{
+			nodes[i] = 0;
+			distances[i] = Double.MAX_VALUE;
+		}
+		int nodeCount = getNodes();
+		double dist;
+		double tmp;
+		for(int block = 0; block < nodeCount; block += NODE_BLOCK)
+		{
+			int blockEnd = Math.min(nodeCount, block + NODE_BLOCK);
+			for(int i = 0; i < batch; i++)
+			{
+				int rowOffset = i * this.columns;
+				double nearestDistance = distances[i];
+				int nearest = nodes[i];
+				for(int j = block; j < blockEnd; j++)
+				{
+					int nodeOffset = j * this.columns;
+					dist = 0;
+					// Stop early once this node cannot be the nearest
+					for(int k = 0; k < this.columns && dist < nearestDistance; k++)
+					{
+						tmp = scaled[rowOffset + k] - this.weights[nodeOffset + k];
+						dist += (tmp * tmp);
+					}
+					if(dist < nearestDistance)
+					{
+						nearest = j;
+						nearestDistance = dist;
+					}
+				}
+				nodes[i] = nearest;
+				distances[i] = nearestDistance;
+			}
+		}
+	}
+
+
+	/**
+	 * Quantize the weights to small integers for a
+	 * smaller model in memory and on disk.
+	 *
+	 * @param bits The size of each quantized weight, 8 or 16
+	 * @param candidates The number of nearest nodes by the
+	 * quantized weights that are compared exactly
+	 *
+	 * @return The quantized Codebook
+	 *
+	 * */
+	public QuantizedCodebook quantize(int bits, int candidates)
+	{
+		return new QuantizedCodebook(this, bits, candidates);
+	}
+
+
+	/**
+	 * Determine the share of observations assigned to
+	 * the same node by this and another Codebook.
+	 *
+	 * @param other The Codebook to compare with
+	 * @param rows The observations in the units of
+	 * the training data
+	 *
+	 * @return The proportion of rows with the same nearest node
+	 *
+	 * */
+	public double agreement(Codebook other, double [][] rows)
+	{
+		int [] nodes = new int[rows.length];
+		int [] otherNodes = new int[rows.length];
+		double [] distances = new double[rows.length];
+		score(rows, 0, rows.length, nodes, distances);
+		other.score(rows, 0, rows.length, otherNodes, distances);
+		int same = 0;
+		for(int i = 0; i < rows.length; i++)
+		{
+			if(nodes[i] == otherNodes[i])
+			{
+				same++;
+			}
+		}
+		return (double)same / rows.length;
+	}
+
+
+	/**
+	 * Scale a batch of observations into one buffer.
+	 *
+	 * @param rows The observations in the units of
+	 * the training data
+	 * @param from The first row to scale
+	 * @param to One past the last row to scale
+	 *
+	 * @return The scaled rows, one after another
+	 *
+	 * */
+	double [] scale(double [][] rows, int from, int to)
+	{
+		double [] scaled = new double[(to - from) * this.columns];
+		for(int i = from; i < to; i++)
+		{
+			double [] row = rows[i];
+			if(row.length != this.columns)
+			{
+				throw new IllegalArgumentException();
+			}
+			int offset = (i - from) * this.columns;
+			for(int k = 0; k < this.columns; k++)
+			{
+				scaled[offset + k] = (row[k] - this.center[k]) / this.scale[k];
+			}
+		}
+		return scaled;
+	}
+
+
+	/**
+	 * Determine whether the exact weights are available.
+	 *
+	 * @return false for quantized models loaded from a file
+	 *
+	 * */
+	boolean hasWeights()
+	{
+		return this.weights != null;
+	}
+
+
+	/**
+	 * Getter method for the weights of every node.
+	 *
+	 * @return The scaled weights, one node after another, or
+	 * null if they are not available. The array is shared
+	 * rather than copied and must not be modified.
+	 *
+	 * */
+	double [] weightArray()
+	{
+		return this.weights;
+	}
+
+
+	/**
+	 * Calculate the exact squared distance from a scaled
+	 * observation to a node.
+	 *
+	 * @param scaled The scaled rows
+	 * @param offset The position of the row in scaled
+	 * @param node The node
+	 *
+	 * @return The squared distance
+	 *
+	 * */
+	double distance(double [] scaled, int offset, int node)
+	{
+		int nodeOffset = node * this.columns;
+		double dist = 0;
+		double tmp;
+		for(int k = 0; k < this.columns; k++)
+		{
+			tmp = scaled[offset + k] - this.weights[nodeOffset + k];
+			dist += (tmp * tmp);
+		}
+		return dist;
+	}
+
+
+	/**
+	 * Save the Codebook to a binary model file.
+	 *
+	 * @param output The file to write
+	 *
+	 * */
+	public void save(File output) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+		try
+		{
+			save(out);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Write the Codebook in the binary model format.
+	 * The format is the magic number, version and type,
+	 * the map dimensions and number of variables, the
+	 * centers and scales, and the weights of each node in
+	 * turn, all big-endian. Quantized codebooks store their
+	 * step size of each column and small integer weights instead.
+	 *
+	 * @param out The stream to write to
+	 *
+	 * */
+	public void save(DataOutputStream out) throws IOException
+	{
+		writeHeader(out, TYPE_DOUBLE);
+		for(int i = 0; i < this.weights.length; i++)
+		{
+			out.writeDouble(this.weights[i]);
+		}
+		out.flush();
+	}
+
+
+	/**
+	 * Write the header of a model file.
+	 *
+	 * @param out The stream to write to
+	 * @param type The type of codebook that follows
+	 *
+	 * */
+	void writeHeader(DataOutputStream out, byte type) throws IOException
+	{
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeByte(type);
+		out.writeInt(this.xDim);
+		out.writeInt(this.yDim);
+		out.writeInt(this.columns);
+		for(int k = 0; k < this.columns; k++)
+		{
+			out.writeDouble(this.center[k]);
+		}
+		for(int k = 0; k < this.columns; k++)
+		{
+			out.writeDouble(this.scale[k]);
+		}
+	}
+
+
+	/**
+	 * Load a Codebook from a binary model file.
+	 *
+	 * @param input The file to read
+	 *
+	 * @return The Codebook in the file
+	 *
+	 * */
+	public static Codebook load(File input) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(input)));
+		try
+		{
+			return load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Read a Codebook in the binary model format.
+	 *
+	 * @param in The stream to read from
+	 *
+	 * @return The Codebook in the stream
+	 *
+	 * */
+	public static Codebook load(DataInputStream in) throws IOException
+	{
+		byte type = readType(in);
+		Codebook header = readHeader(in);
+		if(type != TYPE_DOUBLE)
+		{
+			return QuantizedCodebook.read(in, header, type);
+		}
+		double [] weights = new double[header.getNodes() * header.columns];
+		for(int i = 0; i < weights.length; i++)
+		{
+			weights[i] = in.readDouble();
+		}
+		return new Codebook(header.xDim, header.yDim, weights, header.center, header.scale);
+	}
+
+
+	/**
+	 * Read the start of a model file.
+	 *
+	 * @param in The stream to read from
+	 *
+	 * @return The type of codebook in the file
+	 *
+	 * */
+	private static byte readType(DataInputStream in) throws IOException
+	{
+		if(in.readInt() != MAGIC)
+		{
+			throw new IOException("Not a kohonen4j model file");
+		}
+		int version = in.readInt();
+		if(version != VERSION)
+		{
+			throw new IOException("Unsupported model file version " + version);
+		}
+		byte type = in.readByte();
+		if(type != TYPE_DOUBLE && type != TYPE_INT8 && type != TYPE_INT16)
+		{
+			throw new IOException("Unknown codebook type " + type);
+		}
+		return type;
+	}
+
+
+	/**
+	 * Read the dimensions and scaling of a model file.
+	 *
+	 * @param in The stream to read from
+	 *
+	 * @return A Codebook with the dimensions and scaling
+	 * from the header and no weights
+	 *
+	 * */
+	private static Codebook readHeader(DataInputStream in) throws IOException
+	{
+		int xDim = in.readInt();
+		int yDim = in.readInt();
+		int columns = in.readInt();
+		if(xDim <= 0 || yDim <= 0 || columns <= 0)
+		{
+			throw new IOException("Invalid model dimensions");
+		}
+		double [] center = new double[columns];
+		double [] scale = new double[columns];
+		for(int k = 0; k < columns; k++)
+		{
+			center[k] = in.readDouble();
+		}
+		for(int k = 0; k < columns; k++)
+		{
+			scale[k] = in.readDouble();
+		}
+		return new Codebook(xDim, yDim, (double [])null, center, scale);
+	}
+
+
+	// Main method
+	public static void main(String [] args)
+	{
+		if(args.length < 5)
+		{
+			System.err.println("Usage: java Codebook data.csv xDim yDim epochs model.bin");
+			return;
+		}
+		try
+		{
+			SOM som = new SOM(Dataset.readCsv(args[0]), Integer.parseInt(args[1]),
+				Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+			som.train();
+			som.getCodebook().save(new File(args[4]));
+			System.out.printf("Saved %dx%d model, quantization error %.4f%n",
+				som.getXDim(), som.getYDim(), som.quantizationError());
+		}
+		catch(IOException ioe)
+		{
+			System.err.println("IOException: " + ioe.getMessage());
+		}
+		catch(IllegalArgumentException iae)
+		{
+			System.err.println("The file should contain a rectangular numeric array with at least two columns"
+				+ " and as many rows as columns, and the map settings should be positive integers.");
+		}
+	}
+}
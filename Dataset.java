@@ -0,0 +1,620 @@
+//Dataset.java
+/**
+ * Immutable representation of a training dataset.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * A Dataset holds non-jagged, rectangular numeric data
+ * that is never modified after construction, so the same
+ * Dataset can be shared by any number of SOM objects and
+ * threads without copying. Rows, columns, subsets and
+ * cross-validation folds are views onto the same storage.
+ * The scaled() method returns a second layer with every
+ * column centered and given unit variance; it is computed
+ * once and cached, so all the models trained on a Dataset
+ * also share a single scaled copy.
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.io.*;
+import java.util.*;
+public class Dataset
+{
+	// Storage for the rows, shared between views
+	private final double [][] storage;
+	// Rows of storage in this view, or null for all of them
+	private final int [] index;
+	// Number of rows in this view
+	private final int rows;
+	// Number of columns
+	private final int columns;
+	// Column centers and scales if this is a scaled view
+	private final double [] center;
+	private final double [] scale;
+	// Cached scaled view of this Dataset
+	private Dataset scaledView;
+
+
+	/**
+	 * Read-only view of a single row.
+	 *
+	 * */
+	public static final class Row
+	{
+		private final double [] values;
+
+		private Row(double [] values)
+		{
+			this.values = values;
+		}
+
+		public double get(int column)
+		{
+			return this.values[column];
+		}
+
+		public int size()
+		{
+			return this.values.length;
+		}
+	}
+
+
+	/**
+	 * Read-only view of a single column.
+	 *
+	 * */
+	public static final class Column
+	{
+		private final Dataset data;
+		private final int column;
+
+		private Column(Dataset data, int column)
+		{
+			this.data = data;
+			this.column = column;
+		}
+
+		public double get(int row)
+		{
+			return this.data.get(row, this.column);
+		}
+
+		public int size()
+		{
+			return this.data.getRows();
+		}
+	}
+
+
+	/**
+	 * A training and test split for cross-validation.
+	 *
+	 * */
+	public static final class Fold
+	{
+		private final Dataset train;
+		private final Dataset test;
+
+		private Fold(Dataset train, Dataset test)
+		{
+			this.train = train;
+			this.test = test;
+		}
+
+		public Dataset getTrain()
+		{
+			return this.train;
+		}
+
+		public Dataset getTest()
+		{
+			return this.test;
+		}
+	}
+
+
+	private Dataset(double [][] storage, int [] index, int columns, double [] center, double [] scale)
+	{
+		this.storage = storage;
+		this.index = index;
+		this.rows = index == null ? storage.length : index.length;
+		this.columns = columns;
+		this.center = center;
+		this.scale = scale;
+	}
+
+
+	/**
+	 * Create a Dataset from a copy of an array.
+	 * The array must have at least two rows, at least
+	 * two columns, at least as many rows as columns
+	 * and must not be jagged, like a Grid object.
+	 *
+	 * @param matrix The input array
+	 *
+	 * @return A Dataset with a copy of the array
+	 *
+	 * */
+	public static Dataset copyOf(double [][] matrix)
+	{
+		validate(matrix);
+		double [][] copy = new double[matrix.length][];
+		for(int i = 0; i < matrix.length; i++)
+		{
+			copy[i] = matrix[i].clone();
+		}
+		return new Dataset(copy, null, copy[0].length, null, null);
+	}
+
+
+	/**
+	 * Create a Dataset that takes ownership of the rows
+	 * of an array without copying them. The caller must
+	 * not modify the rows afterwards.
+	 *
+	 * @param matrix The input array
+	 *
+	 * @return A Dataset backed by the rows of the array
+	 *
+	 * */
+	static Dataset wrap(double [][] matrix)
+	{
+		validate(matrix);
+		return new Dataset(matrix.clone(), null, matrix[0].length, null, null);
+	}
+
+
+	/**
+	 * Read a Dataset from a numeric csv file
+	 * without a header.
+	 *
+	 * @param input The path of the file
+	 *
+	 * @return A Dataset with the data in the file
+	 *
+	 * @throws IOException If the file cannot be read
+	 * @throws IllegalArgumentException If the file contains
+	 * non-numeric values or is not a valid Dataset
+	 *
+	 * */
+	public static Dataset readCsv(String input) throws IOException
+	{
+		return readCsv(input, 0, 1);
+	}
+
+
+	/**
+	 * Read every count-th row of a numeric csv file
+	 * without a header, starting at row index. Only
+	 * those rows are parsed and kept, so a shard of a
+	 * file can be read without holding the whole file.
+	 *
+	 * @param input The path of the file
+	 * @param index The position of the first row to keep
+	 * @param count The number of rows between kept rows
+	 *
+	 * @return A Dataset with the kept rows of the file
+	 *
+	 * @throws IOException If the file cannot be read
+	 * @throws IllegalArgumentException If the file contains
+	 * non-numeric values, the kept rows are not a valid
+	 * Dataset or the index is not below the count
+	 *
+	 * */
+	public static Dataset readCsv(String input, int index, int count) throws IOException
+	{
+		if(index < 0 || count <= index)
+		{
+			throw new IllegalArgumentException();
+		}
+		List <double[]> rows = new ArrayList <>();
+		BufferedReader in = new BufferedReader(new FileReader(input));
+		try
+		{
+			String str;
+			for(long line = 0; (str = in.readLine()) != null; line++)
+			{
+				if(line % count != index)
+				{
+					continue;
+				}
+				String [] values = str.split(",");
+				double [] row = new double[values.length];
+				for(int i = 0; i < values.length; i++)
+				{
+					row[i] = Double.parseDouble(values[i]);
+				}
+				rows.add(row);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		if(rows.isEmpty())
+		{
+			throw new IllegalArgumentException();
+		}
+		return wrap(rows.toArray(new double[0][]));
+	}
+
+
+	/**
+	 * Enforce the properties of Grid objects.
+	 *
+	 * @param matrix The input array
+	 *
+	 * */
+	private static void validate(double [][] matrix)
+	{
+		// Must have at least two rows, at least as many rows as
+		// columns and at least two columns
+		if(matrix.length < 2 || matrix.length < matrix[0].length || matrix[0].length < 2)
+		{
+			throw new IllegalArgumentException();
+		}
+		// Don't allow jagged arrays
+		for(int i = 0; i < matrix.length; i++)
+		{
+			if(matrix[0].length != matrix[i].length)
+			{
+				throw new IllegalArgumentException();
+			}
+		}
+	}
+
+
+	/**
+	 * Getter method for the number of rows.
+	 *
+	 * @return The number of rows
+	 *
+	 * */
+	public int getRows()
+	{
+		return this.rows;
+	}
+
+
+	/**
+	 * Getter method for the number of columns.
+	 *
+	 * @return The number of columns
+	 *
+	 * */
+	public int getColumns()
+	{
+		return this.columns;
+	}
+
+
+	/**
+	 * Extract the data for a given row and column.
+	 *
+	 * @param row The row position
+	 * @param column The column position
+	 *
+	 * @return The value at the row and column position
+	 *
+	 * */
+	public double get(int row, int column)
+	{
+		return rowArray(row)[column];
+	}
+
+
+	/**
+	 * View a single row without copying it.
+	 *
+	 * @param row The row position
+	 *
+	 * @return A read-only view of the row
+	 *
+	 * */
+	public Row row(int row)
+	{
+		return new Row(rowArray(row));
+	}
+
+
+	/**
+	 * View a single column without copying it.
+	 *
+	 * @param column The column position
+	 *
+	 * @return A read-only view of the column
+	 *
+	 * */
+	public Column column(int column)
+	{
+		if(column < 0 || column >= this.columns)
+		{
+			throw new IndexOutOfBoundsException("Column " + column);
+		}
+		return new Column(this, column);
+	}
+
+
+	/**
+	 * Copy the data into a new array.
+	 *
+	 * @return A copy of the data
+	 *
+	 * */
+	public double [][] toArray()
+	{
+		double [][] result = new double[this.rows][];
+		for(int i = 0; i < this.rows; i++)
+		{
+			result[i] = rowArray(i).clone();
+		}
+		return result;
+	}
+
+
+	/**
+	 * View a subset of the rows without copying them.
+	 * The subset keeps the scaling of this Dataset.
+	 *
+	 * @param rowIndices The positions of the rows in
+	 * this Dataset, which may be repeated
+	 *
+	 * @return A view of the selected rows
+	 *
+	 * */
+	public Dataset subset(int [] rowIndices)
+	{
+		int [] selected = new int[rowIndices.length];
+		for(int i = 0; i < rowIndices.length; i++)
+		{
+			if(rowIndices[i] < 0 || rowIndices[i] >= this.rows)
+			{
+				throw new IndexOutOfBoundsException("Row " + rowIndices[i]);
+			}
+			selected[i] = this.index == null ? rowIndices[i] : this.index[rowIndices[i]];
+		}
+		return new Dataset(this.storage, selected, this.columns, this.center, this.scale);
+	}
+
+
+	/**
+	 * View a range of rows without copying them.
+	 *
+	 * @param from The first row
+	 * @param to One past the last row
+	 *
+	 * @return A view of the rows in the range
+	 *
+	 * */
+	public Dataset subset(int from, int to)
+	{
+		if(from < 0 || to > this.rows || from > to)
+		{
+			throw new IndexOutOfBoundsException("Rows " + from + " to " + to);
+		}
+		int [] rowIndices = new int[to - from];
+		for(int i = 0; i < rowIndices.length; i++)
+		{
+			rowIndices[i] = from + i;
+		}
+		return subset(rowIndices);
+	}
+
+
+	/**
+	 * Split the rows into folds for cross-validation.
+	 * The rows are shuffled and dealt into k groups;
+	 * each fold uses one group as the test set and the
+	 * others as the training set. All the folds are
+	 * views onto this Dataset.
+	 *
+	 * @param k The number of folds
+	 * @param seed The seed for shuffling the rows
+	 *
+	 * @return The k folds
+	 *
+	 * */
+	public List <Fold> folds(int k, long seed)
+	{
+		if(k < 2 || k > this.rows)
+		{
+			throw new IllegalArgumentException();
+		}
+		int [] order = new int[this.rows];
+		for(int i = 0; i < order.length; i++)
+		{
+			order[i] = i;
+		}
+		Random random = new Random(seed);
+		for(int i = order.length - 1; i > 0; i--)
+		{
+			int j = random.nextInt(i + 1);
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+		List <Fold> result = new ArrayList <>();
+		for(int f = 0; f < k; f++)
+		{
+			// Rows f, f + k, f + 2k, ... of the shuffled order are the test set
+			int testSize = (this.rows - f + k - 1) / k;
+			int [] test = new int[testSize];
+			int [] train = new int[this.rows - testSize];
+			int testCount = 0;
+			int trainCount = 0;
+			for(int i = 0; i < order.length; i++)
+			{
+				if(i % k == f)
+				{
+					test[testCount++] = order[i];
+				}
+				else
+				{
+					train[trainCount++] = order[i];
+				}
+			}
+			result.add(new Fold(subset(train), subset(test)));
+		}
+		return result;
+	}
+
+
+	/**
+	 * Whether this Dataset is a scaled view.
+	 *
+	 * @return Whether the columns have been scaled
+	 *
+	 * */
+	public boolean isScaled()
+	{
+		return this.center != null;
+	}
+
+
+	/**
+	 * Getter method for a column center.
+	 *
+	 * @param column The column position
+	 *
+	 * @return The value subtracted from the column
+	 * when scaling, or zero if this is not a scaled view
+	 *
+	 * */
+	public double getCenter(int column)
+	{
+		return this.center == null ? 0 : this.center[column];
+	}
+
+
+	/**
+	 * Getter method for a column scale.
+	 *
+	 * @param column The column position
+	 *
+	 * @return The value the centered column was divided
+	 * by when scaling, or one if this is not a scaled view
+	 *
+	 * */
+	public double getScale(int column)
+	{
+		return this.scale == null ? 1 : this.scale[column];
+	}
+
+
+	/**
+	 * Standardize the values in the Dataset.
+	 * Each column is centered around zero and given
+	 * unit variance, as with Grid.scaleGrid(). The scaled
+	 * view is computed the first time it is requested and
+	 * shared afterwards. If any column has zero variance
+	 * the values are not scaled, and the view shares the
+	 * rows of this Dataset.
+	 *
+	 * @return The scaled view of this Dataset
+	 *
+	 * */
+	public synchronized Dataset scaled()
+	{
+		if(isScaled())
+		{
+			return this;
+		}
+		if(this.scaledView != null)
+		{
+			return this.scaledView;
+		}
+		double [] colMean = new double[this.columns];
+		double [] colSd = new double[this.columns];
+		double [] currentColumn = new double[this.rows];
+		boolean zeroVariance = false;
+		for(int j = 0; j < this.columns; j++)
+		{
+			for(int i = 0; i < this.rows; i++)
+			{
+				currentColumn[i] = get(i, j);
+			}
+			colMean[j] = Grid.mean(currentColumn);
+			colSd[j] = Math.sqrt(Grid.variance(currentColumn));
+			if(colSd[j] == 0)
+			{
+				zeroVariance = true;
+			}
+		}
+		if(zeroVariance)
+		{
+			// Don't scale, but mark the view as scaled
+			Arrays.fill(colMean, 0);
+			Arrays.fill(colSd, 1);
+			this.scaledView = new Dataset(this.storage, this.index, this.columns, colMean, colSd);
+			return this.scaledView;
+		}
+		double [][] values = new double[this.rows][this.columns];
+		for(int i = 0; i < this.rows; i++)
+		{
+			double [] row = rowArray(i);
+			for(int j = 0; j < this.columns; j++)
+			{
+				values[i][j] = (row[j] - colMean[j]) / colSd[j];
+			}
+		}
+		this.scaledView = new Dataset(values, null, this.columns, colMean, colSd);
+		return this.scaledView;
+	}
+
+
+	/**
+	 * The array backing a row. Only used by
+	 * trusted code in this package that does
+	 * not modify it.
+	 *
+	 * @param row The row position
+	 *
+	 * @return The array with the values of the row
+	 *
+	 * */
+	double [] rowArray(int row)
+	{
+		return this.storage[this.index == null ? row : this.index[row]];
+	}
+
+
+	/**
+	 * The arrays backing all the rows. Only used
+	 * by trusted code in this package that does
+	 * not modify them.
+	 *
+	 * @return The arrays with the values of the rows
+	 *
+	 * */
+	double [][] rowArrays()
+	{
+		if(this.index == null)
+		{
+			return this.storage;
+		}
+		double [][] result = new double[this.rows][];
+		for(int i = 0; i < this.rows; i++)
+		{
+			result[i] = this.storage[this.index[i]];
+		}
+		return result;
+	}
+}
@@ -0,0 +1,584 @@
+//DistributedSOM.java
+/**
+ * Train a self-organizing map on data split between workers.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * The coordinator uses the batch form of the algorithm,
+ * which only needs sums over the data. The workers first
+ * report column statistics, which are combined into one
+ * scaling for all shards, and random rows, from which the
+ * initial weights are drawn. In every epoch the workers
+ * then receive the current weights and return the sum and
+ * count of their rows nearest to each node. The coordinator
+ * adds these up and sets each node to the mean of the rows,
+ * weighted by the neighborhood function of the distance on
+ * the map from the node to each row's nearest node. The
+ * radius shrinks with the same schedule as SOM.train(),
+ * one step per epoch. The shards are called concurrently
+ * through a Transport, so the workers can be in this
+ * process or in other processes on this or other machines.
+ * Usage with workers started by ShardWorker:
+ *
+ * java DistributedSOM xDim yDim epochs model.bin host:port [host:port ...]
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+public class DistributedSOM
+{
+	// Pool for smoothing the sums on the coordinator
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+
+	// How the shards are reached
+	private final Transport transport;
+	// X dimension of the map
+	private final int xDim;
+	// Y dimension of the map
+	private final int yDim;
+	// Number of passes over the data
+	private final int epochs;
+	// Neighborhood function
+	private Neighborhood kernel = Neighborhood.BUBBLE;
+	private double cutoff = Neighborhood.DEFAULT_CUTOFF;
+	// Distances between the nodes
+	private Topology topology;
+	// Receives progress reports, if set
+	private TrainingListener listener;
+	// Seed for the initial weights
+	private long seed = System.nanoTime();
+
+	// Results
+	private Codebook codebook;
+	private double quantizationError = Double.NaN;
+	private int [] hits;
+
+
+	/**
+	 * Constructor for the DistributedSOM.
+	 *
+	 * @param transport How the shards are reached
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 * @param epochs The number of passes over the data
+	 *
+	 * */
+	public DistributedSOM(Transport transport, int xDim, int yDim, int epochs)
+	{
+		if(xDim <= 0 || yDim <= 0 || epochs <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.transport = transport;
+		this.xDim = xDim;
+		this.yDim = yDim;
+		this.epochs = epochs;
+		this.topology = new Topology(xDim, yDim);
+	}
+
+
+	/**
+	 * Setter method for kernel.
+	 *
+	 * @param kernel The neighborhood function
+	 *
+	 * */
+	public void setKernel(Neighborhood kernel)
+	{
+		if(kernel == null)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.kernel = kernel;
+	}
+
+
+	/**
+	 * Setter method for cutoff.
+	 *
+	 * @param cutoff The number of standard deviations beyond
+	 * which a truncated Gaussian neighborhood gives no update.
+	 * The default is 2, the neighborhood radius.
+	 *
+	 * */
+	public void setCutoff(double cutoff)
+	{
+		if(!(cutoff > 0))
+		{
+			throw new IllegalArgumentException();
+		}
+		this.cutoff = cutoff;
+	}
+
+
+	/**
+	 * Setter method for topology.
+	 *
+	 * @param topology The shape of the map and the distances
+	 * between its nodes, with the dimensions of the map
+	 *
+	 * */
+	public void setTopology(Topology topology)
+	{
+		if(topology == null || topology.getXDim() != this.xDim || topology.getYDim() != this.yDim)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.topology = topology;
+	}
+
+
+	/**
+	 * Setter method for listener. The listener receives
+	 * progress and a snapshot after every epoch.
+	 *
+	 * @param listener The listener, or null for none
+	 *
+	 * */
+	public void setListener(TrainingListener listener)
+	{
+		this.listener = listener;
+	}
+
+
+	/**
+	 * Setter method for seed.
+	 *
+	 * @param seed The seed for choosing the initial weights
+	 *
+	 * */
+	public void setSeed(long seed)
+	{
+		this.seed = seed;
+	}
+
+
+	/**
+	 * Getter method for the trained weights.
+	 *
+	 * @return The Codebook, or null before training
+	 *
+	 * */
+	public Codebook getCodebook()
+	{
+		return this.codebook;
+	}
+
+
+	/**
+	 * The mean distance from each observation to its
+	 * nearest node after training.
+	 *
+	 * @return The quantization error
+	 *
+	 * */
+	public double quantizationError()
+	{
+		return this.quantizationError;
+	}
+
+
+	/**
+	 * The number of observations nearest to each
+	 * node after training.
+	 *
+	 * @return The count for each node
+	 *
+	 * */
+	public int [] getHits()
+	{
+		return this.hits == null ? null : this.hits.clone();
+	}
+
+
+	/**
+	 * Fit the map to the data held by the shards.
+	 * The transport is closed when training ends.
+	 *
+	 * @return The trained Codebook
+	 *
+	 * */
+	public Codebook train() throws IOException
+	{
+		List <Transport.Shard> shards = this.transport.connect();
+		ExecutorService calls = Executors.newFixedThreadPool(shards.size());
+		try
+		{
+			// Combine the column statistics into one scaling
+			ShardWorker.Stats total = null;
+			for(ShardWorker.Stats stats : callAll(calls, shards, new ShardCall<ShardWorker.Stats>()
+			{
+				public ShardWorker.Stats call(Transport.Shard shard, int index) throws IOException
+				{
+					return shard.stats();
+				}
+			}))
+			{
+				if(total == null)
+				{
+					total = stats;
+				}
+				else
+				{
+					total.add(stats);
+				}
+			}
+			final int columns = total.getColumns();
+			final double [] center = new double[columns];
+			final double [] scale = new double[columns];
+			boolean zeroVariance = false;
+			for(int k = 0; k < columns; k++)
+			{
+				center[k] = total.getMean(k);
+				scale[k] = Math.sqrt(total.getSumSquares(k) / total.getRows());
+				zeroVariance |= scale[k] == 0;
+			}
+			if(zeroVariance)
+			{
+				// Like Dataset.scaled(), don't scale at all
+				Arrays.fill(center, 0);
+				Arrays.fill(scale, 1);
+			}
+			callAll(calls, shards, new ShardCall<Void>()
+			{
+				public Void call(Transport.Shard shard, int index) throws IOException
+				{
+					shard.setScaling(center, scale);
+					return null;
+				}
+			});
+
+			// Draw the initial weights from random rows of all the shards
+			final int nodes = this.xDim * this.yDim;
+			List <double[]> candidates = new ArrayList <>();
+			for(double [][] rows : callAll(calls, shards, new ShardCall<double[][]>()
+			{
+				public double [][] call(Transport.Shard shard, int index) throws IOException
+				{
+					return shard.sample(nodes, seed + index);
+				}
+			}))
+			{
+				candidates.addAll(Arrays.asList(rows));
+			}
+			if(candidates.size() < nodes)
+			{
+				throw new IllegalArgumentException("The map has more nodes than the data has rows");
+			}
+			Collections.shuffle(candidates, new Random(this.seed));
+			final double [] weights = new double[nodes * columns];
+			for(int j = 0; j < nodes; j++)
+			{
+				System.arraycopy(candidates.get(j), 0, weights, j * columns, columns);
+			}
+
+			// Batch training
+			double initNH = 1.75 * this.topology.variance();
+			for(int epoch = 0; epoch < this.epochs; epoch++)
+			{
+				ShardWorker.Partial sums = epoch(calls, shards, weights);
+				// The last epoch uses the final radius of the online schedule
+				double radius = initNH * Math.exp(-3d * (epoch + 1) / this.epochs);
+				smooth(sums, radius, weights, columns);
+				report(epoch + 1, sums, weights, columns);
+			}
+
+			// One more pass finds the error of the final weights
+			ShardWorker.Partial last = epoch(calls, shards, weights);
+			this.quantizationError = last.getDistanceSum() / last.getRows();
+			this.hits = new int[nodes];
+			for(int j = 0; j < nodes; j++)
+			{
+				this.hits[j] = (int)last.getCount(j);
+			}
+			this.codebook = new Codebook(this.xDim, this.yDim, weights, center, scale);
+			return this.codebook;
+		}
+		finally
+		{
+			calls.shutdownNow();
+			this.transport.close();
+		}
+	}
+
+
+	/**
+	 * Run one epoch on every shard and add up the sums.
+	 *
+	 * @param calls The threads calling the shards
+	 * @param shards The shards
+	 * @param weights The current weights
+	 *
+	 * @return The sums over all the shards
+	 *
+	 * */
+	private ShardWorker.Partial epoch(ExecutorService calls, List <Transport.Shard> shards,
+		final double [] weights) throws IOException
+	{
+		ShardWorker.Partial total = null;
+		for(ShardWorker.Partial partial : callAll(calls, shards, new ShardCall<ShardWorker.Partial>()
+		{
+			public ShardWorker.Partial call(Transport.Shard shard, int index) throws IOException
+			{
+				return shard.epoch(xDim, yDim, weights);
+			}
+		}))
+		{
+			if(total == null)
+			{
+				total = partial;
+			}
+			else
+			{
+				total.add(partial);
+			}
+		}
+		return total;
+	}
+
+
+	/**
+	 * Set each node to the mean of the rows weighted by the
+	 * neighborhood function of the distance on the map from
+	 * the node to the nearest node of each row. Nodes with
+	 * no rows within reach keep their weights.
+	 *
+	 * @param sums The sums over all the shards
+	 * @param radius The neighborhood radius
+	 * @param weights The weights to update
+	 * @param columns The number of columns
+	 *
+	 * */
+	private void smooth(final ShardWorker.Partial sums, double radius, final double [] weights, final int columns)
+	{
+		final Topology topology = this.topology.cached();
+		final int maxDistance = topology.maxDistance();
+		final double [] table = new double[maxDistance + 1];
+		for(int d = 0; d <= maxDistance; d++)
+		{
+			table[d] = this.kernel.weight(d, radius, this.cutoff);
+		}
+		final int reach = (int)Math.min(maxDistance, Math.floor(this.kernel.reach(radius, this.cutoff)));
+
+		// Each task updates the nodes of some columns of the map
+		List <Callable<Void>> tasks = new ArrayList <>();
+		int step = Math.max(1, this.xDim / (4 * POOL.getParallelism()));
+		for(int start = 0; start < this.xDim; start += step)
+		{
+			final int from = start;
+			final int to = Math.min(this.xDim, start + step);
+			tasks.add(new Callable<Void>()
+			{
+				public Void call()
+				{
+					double [] numerator = new double[columns];
+					int [] near = new int[topology.size()];
+					int [] distances = new int[topology.size()];
+					for(int x = from; x < to; x++)
+					{
+						for(int y = 0; y < yDim; y++)
+						{
+							Arrays.fill(numerator, 0);
+							double denominator = 0;
+							int count = topology.neighbors(x * yDim + y, reach, near, distances);
+							for(int n = 0; n < count; n++)
+							{
+								int c = near[n];
+								long hits = sums.getCount(c);
+								double h = table[distances[n]];
+								if(hits == 0 || h == 0)
+								{
+									continue;
+								}
+								denominator += h * hits;
+								for(int k = 0; k < columns; k++)
+								{
+									numerator[k] += h * sums.getSum(c * columns + k);
+								}
+							}
+							if(denominator > 0)
+							{
+								int offset = (x * yDim + y) * columns;
+								for(int k = 0; k < columns; k++)
+								{
+									weights[offset + k] = numerator[k] / denominator;
+								}
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+		for(Future<Void> task : POOL.invokeAll(tasks))
+		{
+			try
+			{
+				task.get();
+			}
+			catch(InterruptedException ie)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Training was interrupted", ie);
+			}
+			catch(ExecutionException ee)
+			{
+				throw new IllegalStateException("Training failed", ee.getCause());
+			}
+		}
+	}
+
+
+	/**
+	 * Report the progress of training to the listener.
+	 *
+	 * @param epoch The number of epochs completed
+	 * @param sums The sums of the epoch
+	 * @param weights The current weights
+	 * @param columns The number of columns
+	 *
+	 * */
+	private void report(int epoch, ShardWorker.Partial sums, double [] weights, int columns)
+	{
+		if(this.listener == null)
+		{
+			return;
+		}
+		this.listener.progress(epoch, this.epochs);
+		int nodes = this.xDim * this.yDim;
+		double [][] copy = new double[nodes][columns];
+		int [] counts = new int[nodes];
+		for(int j = 0; j < nodes; j++)
+		{
+			System.arraycopy(weights, j * columns, copy[j], 0, columns);
+			counts[j] = (int)sums.getCount(j);
+		}
+		this.listener.snapshot(copy, counts);
+	}
+
+
+	/**
+	 * A request made of every shard at once.
+	 *
+	 * */
+	private interface ShardCall<T>
+	{
+		T call(Transport.Shard shard, int index) throws IOException;
+	}
+
+
+	/**
+	 * Make a request of every shard concurrently.
+	 *
+	 * @param calls The threads calling the shards
+	 * @param shards The shards
+	 * @param call The request
+	 *
+	 * @return The answer of each shard
+	 *
+	 * */
+	private static <T> List <T> callAll(ExecutorService calls, List <Transport.Shard> shards,
+		final ShardCall<T> call) throws IOException
+	{
+		List <Callable<T>> tasks = new ArrayList <>();
+		for(int s = 0; s < shards.size(); s++)
+		{
+			final Transport.Shard shard = shards.get(s);
+			final int index = s;
+			tasks.add(new Callable<T>()
+			{
+				public T call() throws IOException
+				{
+					return call.call(shard, index);
+				}
+			});
+		}
+		List <T> result = new ArrayList <>();
+		try
+		{
+			for(Future<T> task : calls.invokeAll(tasks))
+			{
+				result.add(task.get());
+			}
+		}
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Training was interrupted");
+		}
+		catch(ExecutionException ee)
+		{
+			Throwable cause = ee.getCause();
+			if(cause instanceof IOException)
+			{
+				throw (IOException)cause;
+			}
+			if(cause instanceof RuntimeException)
+			{
+				throw (RuntimeException)cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+		return result;
+	}
+
+
+	// Main method
+	public static void main(String [] args)
+	{
+		if(args.length < 5)
+		{
+			System.err.println("Usage: java DistributedSOM xDim yDim epochs model.bin host:port [host:port ...]");
+			return;
+		}
+		try
+		{
+			DistributedSOM som = new DistributedSOM(
+				new SocketTransport(SocketTransport.parse(Arrays.copyOfRange(args, 4, args.length))),
+				Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+			som.setListener(new TrainingListener()
+			{
+				public void progress(long iteration, long iterations)
+				{
+					System.out.println("Epoch " + iteration + " of " + iterations);
+				}
+
+				public void snapshot(double [][] weights, int [] hits)
+				{
+				}
+			});
+			long start = System.nanoTime();
+			som.train().save(new File(args[3]));
+			System.out.printf("Trained in %.1f s, quantization error %.4f%n",
+				(System.nanoTime() - start) / 1e9, som.quantizationError());
+		}
+		catch(IOException ioe)
+		{
+			System.err.println("IOException: " + ioe.getMessage());
+		}
+		catch(IllegalArgumentException iae)
+		{
+			System.err.println("The map settings should be positive integers and the workers host:port addresses: "
+				+ iae.getMessage());
+		}
+	}
+}
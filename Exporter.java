@@ -0,0 +1,595 @@
+//Exporter.java
+/**
+ * Write the results of a trained map to csv and binary files.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * The node assigned to each observation, its squared
+ * distance to the node, the number of observations
+ * assigned to each node and the weights of the nodes
+ * can be written as csv files without a header, like the
+ * input data, or in a compact binary format. Rows are
+ * written a bounded chunk at a time, so an export never
+ * builds its output in memory. The weights are also
+ * available in the binary model format through
+ * Codebook.save().
+ *
+ * The binary format is the magic number, version and
+ * type, the map dimensions and the number of records,
+ * followed by the records, all big-endian. Assignments
+ * are the node as an int and the squared distance as a
+ * double; hit counts are a long for every node in turn.
+ *
+ * The main method scores a csv file with a saved model
+ * as it reads it, so files of any size are assigned in
+ * constant memory. Usage:
+ *
+ * java Exporter model.bin data.csv assignments [csv|binary] [hits]
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+public class Exporter
+{
+	// Identifies kohonen4j result files ("K4JR")
+	static final int MAGIC = 0x4B344A52;
+	// Version of the result file format
+	static final int VERSION = 1;
+	// Types of records stored in a result file
+	static final byte TYPE_ASSIGNMENTS = 0;
+	static final byte TYPE_HITS = 1;
+	// Position of the number of records in a result file
+	private static final int COUNT_OFFSET = 17;
+	// Size of the chunks written to binary files
+	private static final int CHUNK_BYTES = 1 << 20;
+	// Size of the buffer for csv files
+	private static final int BUFFER_CHARS = 1 << 16;
+	// Number of rows scored at a time
+	private static final int CHUNK_ROWS = 4096;
+
+
+	/**
+	 * Writer for the node assigned to each observation,
+	 * one chunk of observations at a time. It also counts
+	 * the observations assigned to each node.
+	 *
+	 * */
+	public abstract static class AssignmentWriter implements Closeable
+	{
+		// X dimension of the map
+		final int xDim;
+		// Y dimension of the map
+		final int yDim;
+		// Observations assigned to each node so far
+		private final long [] hits;
+		// Number of observations written so far
+		long rows;
+
+		AssignmentWriter(int xDim, int yDim)
+		{
+			if(xDim <= 0 || yDim <= 0)
+			{
+				throw new IllegalArgumentException();
+			}
+			this.xDim = xDim;
+			this.yDim = yDim;
+			this.hits = new long[xDim * yDim];
+		}
+
+		/**
+		 * Write the assignments of a chunk of observations.
+		 *
+		 * @param nodes The node assigned to each observation
+		 * @param distances The squared distance from each
+		 * observation to its node
+		 * @param from The first observation to write
+		 * @param to One past the last observation to write
+		 *
+		 * */
+		public void write(int [] nodes, double [] distances, int from, int to) throws IOException
+		{
+			for(int i = from; i < to; i++)
+			{
+				if(nodes[i] < 0 || nodes[i] >= this.hits.length)
+				{
+					throw new IllegalArgumentException("Node " + nodes[i] + " is not on the map");
+				}
+				this.hits[nodes[i]]++;
+				append(nodes[i], distances[i]);
+				this.rows++;
+			}
+		}
+
+		/**
+		 * Getter method for rows.
+		 *
+		 * @return The number of observations written so far
+		 *
+		 * */
+		public long getRows()
+		{
+			return this.rows;
+		}
+
+		/**
+		 * Getter method for hits.
+		 *
+		 * @return A copy of the number of observations
+		 * assigned to each node so far
+		 *
+		 * */
+		public long [] getHits()
+		{
+			return this.hits.clone();
+		}
+
+		/**
+		 * Write the assignment of the next observation.
+		 *
+		 * @param node The node
+		 * @param distance The squared distance to the node
+		 *
+		 * */
+		abstract void append(int node, double distance) throws IOException;
+	}
+
+
+	/**
+	 * Writer for assignments as csv lines of the
+	 * observation, node, x and y position of the node
+	 * and squared distance.
+	 *
+	 * */
+	private static final class CsvAssignmentWriter extends AssignmentWriter
+	{
+		private final CsvWriter out;
+
+		CsvAssignmentWriter(File output, int xDim, int yDim) throws IOException
+		{
+			super(xDim, yDim);
+			this.out = new CsvWriter(output);
+		}
+
+		void append(int node, double distance) throws IOException
+		{
+			StringBuilder line = this.out.line();
+			line.append(this.rows).append(',').append(node).append(',')
+				.append(node / this.yDim).append(',').append(node % this.yDim).append(',').append(distance);
+			this.out.endLine();
+		}
+
+		public void close() throws IOException
+		{
+			this.out.close();
+		}
+	}
+
+
+	/**
+	 * Writer for assignments in the binary format.
+	 * The number of records is filled in on closing.
+	 *
+	 * */
+	private static final class BinaryAssignmentWriter extends AssignmentWriter
+	{
+		private final BinaryWriter out;
+
+		BinaryAssignmentWriter(File output, int xDim, int yDim) throws IOException
+		{
+			super(xDim, yDim);
+			this.out = new BinaryWriter(output, TYPE_ASSIGNMENTS, xDim, yDim);
+		}
+
+		void append(int node, double distance) throws IOException
+		{
+			ByteBuffer buffer = this.out.reserve(12);
+			buffer.putInt(node);
+			buffer.putDouble(distance);
+		}
+
+		public void close() throws IOException
+		{
+			this.out.close(this.rows);
+		}
+	}
+
+
+	/**
+	 * Buffered csv output that reuses one builder
+	 * for every line.
+	 *
+	 * */
+	private static final class CsvWriter
+	{
+		private final Writer out;
+		private final StringBuilder line = new StringBuilder();
+		private char [] chars = new char[64];
+
+		CsvWriter(File output) throws IOException
+		{
+			this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"), BUFFER_CHARS);
+		}
+
+		StringBuilder line()
+		{
+			this.line.setLength(0);
+			return this.line;
+		}
+
+		void endLine() throws IOException
+		{
+			this.line.append('\n');
+			int length = this.line.length();
+			if(this.chars.length < length)
+			{
+				this.chars = new char[2 * length];
+			}
+			this.line.getChars(0, length, this.chars, 0);
+			this.out.write(this.chars, 0, length);
+		}
+
+		void close() throws IOException
+		{
+			this.out.close();
+		}
+	}
+
+
+	/**
+	 * Binary output through a file channel, written
+	 * a bounded chunk at a time.
+	 *
+	 * */
+	private static final class BinaryWriter
+	{
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+
+		BinaryWriter(File output, byte type, int xDim, int yDim) throws IOException
+		{
+			this.channel = new FileOutputStream(output).getChannel();
+			this.buffer.putInt(MAGIC);
+			this.buffer.putInt(VERSION);
+			this.buffer.put(type);
+			this.buffer.putInt(xDim);
+			this.buffer.putInt(yDim);
+			// The number of records is not known yet
+			this.buffer.putLong(-1);
+		}
+
+		ByteBuffer reserve(int bytes) throws IOException
+		{
+			if(this.buffer.remaining() < bytes)
+			{
+				flush();
+			}
+			return this.buffer;
+		}
+
+		void flush() throws IOException
+		{
+			this.buffer.flip();
+			while(this.buffer.hasRemaining())
+			{
+				this.channel.write(this.buffer);
+			}
+			this.buffer.clear();
+		}
+
+		void close(long records) throws IOException
+		{
+			try
+			{
+				flush();
+				ByteBuffer count = ByteBuffer.allocate(8);
+				count.putLong(records);
+				count.flip();
+				while(count.hasRemaining())
+				{
+					this.channel.write(count, COUNT_OFFSET + count.position());
+				}
+			}
+			finally
+			{
+				this.channel.close();
+			}
+		}
+	}
+
+
+	/**
+	 * Open a csv file for assignments. Each line holds the
+	 * observation, node, x and y position of the node and
+	 * squared distance to the node.
+	 *
+	 * @param output The file to write
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 *
+	 * @return The writer, which must be closed
+	 *
+	 * */
+	public static AssignmentWriter csvAssignments(File output, int xDim, int yDim) throws IOException
+	{
+		return new CsvAssignmentWriter(output, xDim, yDim);
+	}
+
+
+	/**
+	 * Open a binary file for assignments.
+	 *
+	 * @param output The file to write
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 *
+	 * @return The writer, which must be closed
+	 *
+	 * */
+	public static AssignmentWriter binaryAssignments(File output, int xDim, int yDim) throws IOException
+	{
+		return new BinaryAssignmentWriter(output, xDim, yDim);
+	}
+
+
+	/**
+	 * Write the assignments of a trained map, such
+	 * as getNodes() and getDistances() of a SOM.
+	 *
+	 * @param output The file to write
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 * @param nodes The node assigned to each observation
+	 * @param distances The squared distance from each
+	 * observation to its node
+	 * @param binary Whether to use the binary format
+	 * rather than csv
+	 *
+	 * */
+	public static void writeAssignments(File output, int xDim, int yDim, int [] nodes, double [] distances,
+		boolean binary) throws IOException
+	{
+		if(nodes.length != distances.length)
+		{
+			throw new IllegalArgumentException();
+		}
+		AssignmentWriter out = binary ? binaryAssignments(output, xDim, yDim) : csvAssignments(output, xDim, yDim);
+		try
+		{
+			out.write(nodes, distances, 0, nodes.length);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Write the number of observations assigned to each
+	 * node. Each csv line holds the node, its x and y
+	 * position and its count.
+	 *
+	 * @param output The file to write
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 * @param hits The count for each node
+	 * @param binary Whether to use the binary format
+	 * rather than csv
+	 *
+	 * */
+	public static void writeHits(File output, int xDim, int yDim, long [] hits, boolean binary) throws IOException
+	{
+		if(xDim <= 0 || yDim <= 0 || hits.length != xDim * yDim)
+		{
+			throw new IllegalArgumentException();
+		}
+		if(binary)
+		{
+			BinaryWriter out = new BinaryWriter(output, TYPE_HITS, xDim, yDim);
+			try
+			{
+				for(int j = 0; j < hits.length; j++)
+				{
+					out.reserve(8).putLong(hits[j]);
+				}
+			}
+			finally
+			{
+				out.close(hits.length);
+			}
+			return;
+		}
+		CsvWriter out = new CsvWriter(output);
+		try
+		{
+			for(int j = 0; j < hits.length; j++)
+			{
+				out.line().append(j).append(',').append(j / yDim).append(',').append(j % yDim)
+					.append(',').append(hits[j]);
+				out.endLine();
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Count the observations assigned to each node.
+	 *
+	 * @param nodes The node assigned to each observation
+	 * @param count The number of nodes on the map
+	 *
+	 * @return The count for each node
+	 *
+	 * */
+	public static long [] hits(int [] nodes, int count)
+	{
+		long [] result = new long[count];
+		for(int node : nodes)
+		{
+			result[node]++;
+		}
+		return result;
+	}
+
+
+	/**
+	 * Write the weights of every node in the units of
+	 * the data. Each csv line holds the node, its x and
+	 * y position and its weights.
+	 *
+	 * @param output The file to write
+	 * @param codebook The Codebook of the map
+	 *
+	 * */
+	public static void writeWeights(File output, Codebook codebook) throws IOException
+	{
+		CsvWriter out = new CsvWriter(output);
+		try
+		{
+			for(int j = 0; j < codebook.getNodes(); j++)
+			{
+				double [] weights = codebook.getWeights(j);
+				StringBuilder line = out.line();
+				line.append(j).append(',').append(j / codebook.getYDim()).append(',').append(j % codebook.getYDim());
+				for(int k = 0; k < weights.length; k++)
+				{
+					line.append(',').append(weights[k] * codebook.getScale(k) + codebook.getCenter(k));
+				}
+				out.endLine();
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Assign every row of a csv file to its nearest node,
+	 * reading, scoring and writing a chunk of rows at a time.
+	 *
+	 * @param codebook The Codebook of the map
+	 * @param input The path of a numeric csv file without
+	 * a header with the same columns as the training data
+	 * @param out The writer for the assignments
+	 *
+	 * @return The number of rows scored
+	 *
+	 * */
+	public static long score(Codebook codebook, String input, AssignmentWriter out) throws IOException
+	{
+		double [][] rows = new double[CHUNK_ROWS][];
+		int [] nodes = new int[CHUNK_ROWS];
+		double [] distances = new double[CHUNK_ROWS];
+		long total = 0;
+		BufferedReader in = new BufferedReader(new FileReader(input), BUFFER_CHARS);
+		try
+		{
+			int count = 0;
+			String str;
+			while(true)
+			{
+				str = in.readLine();
+				if(str != null)
+				{
+					String [] values = str.split(",");
+					if(values.length != codebook.getColumns())
+					{
+						throw new IllegalArgumentException("Row " + (total + count + 1) + " has "
+							+ values.length + " columns, not " + codebook.getColumns());
+					}
+					double [] row = rows[count] != null ? rows[count] : new double[values.length];
+					for(int k = 0; k < values.length; k++)
+					{
+						row[k] = Double.parseDouble(values[k]);
+					}
+					rows[count++] = row;
+				}
+				if(count == CHUNK_ROWS || (str == null && count > 0))
+				{
+					codebook.score(rows, 0, count, nodes, distances);
+					out.write(nodes, distances, 0, count);
+					total += count;
+					count = 0;
+				}
+				if(str == null)
+				{
+					return total;
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+
+	// Main method
+	public static void main(String [] args)
+	{
+		if(args.length < 3)
+		{
+			System.err.println("Usage: java Exporter model.bin data.csv assignments [csv|binary] [hits]");
+			return;
+		}
+		try
+		{
+			Codebook codebook = Codebook.load(new File(args[0]));
+			boolean binary = args.length > 3 && args[3].equals("binary");
+			if(args.length > 3 && !binary && !args[3].equals("csv"))
+			{
+				throw new IllegalArgumentException();
+			}
+			long start = System.nanoTime();
+			AssignmentWriter out = binary ? binaryAssignments(new File(args[2]), codebook.getXDim(), codebook.getYDim())
+				: csvAssignments(new File(args[2]), codebook.getXDim(), codebook.getYDim());
+			try
+			{
+				score(codebook, args[1], out);
+			}
+			finally
+			{
+				out.close();
+			}
+			if(args.length > 4)
+			{
+				writeHits(new File(args[4]), codebook.getXDim(), codebook.getYDim(), out.getHits(), binary);
+			}
+			System.out.printf("Assigned %d rows in %.1f s%n", out.getRows(), (System.nanoTime() - start) / 1e9);
+		}
+		catch(IOException ioe)
+		{
+			System.err.println("IOException: " + ioe.getMessage());
+		}
+		catch(IllegalArgumentException iae)
+		{
+			System.err.println("The data should be numeric with the same columns as the model,"
+				+ " and the format csv or binary.");
+		}
+	}
+}
@@ -103,7 +103,7 @@ public class Grid
 	 * @return The mean of the array
 	 * 
 	 * */
-	public double mean(double[] inputArray)
+	public static double mean(double[] inputArray)
 	{
 		double result = 0;
 		for(int i = 0; i < inputArray.length; i++)
@@ -125,7 +125,7 @@ public class Grid
 	 * @return The variance of the array
 	 * 
 	 * */
-	public double variance(double [] inputArray)
+	public static double variance(double [] inputArray)
 	{
 		double xMean = mean(inputArray);
 		double sumSq = 0;
@@ -233,6 +233,9 @@ public class Grid
 	 * points. The second row of the output Grid similarly
 	 * contains the distances to all the other points from
 	 * the second point in the implicit argument Grid, etc.
+	 * The result has a value for every pair of points, so
+	 * for the nodes of a map use a Topology instead, which
+	 * calculates distances when they are needed.
 	 * 
 	 * @return A grid object representing the pairwise
 	 * distances
@@ -244,22 +247,19 @@ public class Grid
 		 double xDist;
 		 double yDist;
 		 double [][] distances = new double[nRow][nRow];
-		 // Calculate for every point
+		 // Calculate from every point to every later point and
+		 // mirror it, since the distance is symmetric
 		 // The result with be a matrix of dimensions nRow * nRow
-		 for(int currentObs = 0; currentObs < nRow; currentObs++)
+		 for(int i = 0; i < nRow; i++)
 		 {
-			 // Calculate on every row
-			 for(int i = 0; i < nRow; i++)
+			 for(int j = i; j < nRow; j++)
 			 {
-				 // Calculate on every column
-				 for(int j = 0; j < nRow; j++)
-				 {
-					 xDist = Math.abs(this.getObs(currentObs, 0) - this.getObs(j, 0));
-					 yDist = Math.abs(this.getObs(currentObs, 1) - this.getObs(j, 1));
-					 distances[i][j] = Math.max(xDist, yDist);
-				 }
+				 xDist = Math.abs(this.gridData[i][0] - this.gridData[j][0]);
+				 yDist = Math.abs(this.gridData[i][1] - this.gridData[j][1]);
+				 distances[i][j] = Math.max(xDist, yDist);
+				 distances[j][i] = distances[i][j];
 			 }
-		 } 
+		 }
 		 return new Grid(distances);
 	 }
 	 
@@ -272,17 +272,19 @@ public class Grid
 	  * */
 	 public String toString()
 	 {
-		 String s = "";
+		 // Build the text in one buffer rather than
+		 // copying it again for every value
+		 StringBuilder s = new StringBuilder();
 		 // Traverse the current row
 		 for(int i = 0; i < this.gridData.length; i++)
 		 {
 			 // Traverse all the columns
 			 for(int j = 0; j < this.gridData[0].length; j++)
 			 {
-				 s += (this.gridData[i][j]+ " ");
+				 s.append(this.gridData[i][j]).append(' ');
 			 }
-			 s += "\n";
+			 s.append('\n');
 		 }
-		 return s;
+		 return s.toString();
 	 }
 }
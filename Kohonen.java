@@ -45,12 +45,11 @@ public class Kohonen extends JFrame
 {
 	// Instance variables
 	private JButton fileChooser = new JButton("Input File");
-	private ArrayList <double[]> inputData = new ArrayList<>();
-	private Grid trainData;
 	private JTextField xDim = new JTextField(3);
 	private JTextField yDim = new JTextField(3);
 	private JTextField epochs = new JTextField(4);
 	private JComboBox<String> colorBox = new JComboBox<String>(new String[]{"Red", "Green", "Blue"});
+	private JComboBox<String> plotBox = new JComboBox<String>(new String[]{"Counts", "Distances", "U-matrix"});
 	
 	/**
 	 * Read in the input csv data
@@ -59,13 +58,22 @@ public class Kohonen extends JFrame
 	 * self-organizing map. The function also
 	 * checks the data to make sure it is valid
 	 * and satisfies the necessary conditions
-	 * to construct a self-organizing map.
+	 * to construct a self-organizing map. It does
+	 * not use any Swing components, so it can run
+	 * on a background thread.
 	 * 
 	 * @param input The file object to read in
 	 * 
+	 * @return The validated data
+	 * 
+	 * @throws IOException If the file cannot be read
+	 * @throws IllegalArgumentException If the data are not
+	 * valid, with a message for the user
+	 * 
 	 * */
-	public void readFile(String input)
+	public Dataset readFile(String input) throws IOException
 	{
+		ArrayList <double[]> inputData = new ArrayList<>();
 
 		// Open a BufferedReader
 		BufferedReader in;
@@ -75,8 +83,7 @@ public class Kohonen extends JFrame
 		}
 		catch(IOException ioe)
 		{
-			JOptionPane.showMessageDialog(null, "Cannot read file. Select a readable file.");
-			return;
+			throw new IOException("Cannot read file. Select a readable file.");
 		}
 		
 		double[] currentRow;
@@ -94,15 +101,19 @@ public class Kohonen extends JFrame
 				// There should be at least two columns
 				if(numColumns < 2)
 				{
-					JOptionPane.showMessageDialog(null, "The file should have at least two columns.");
-					return;
+					throw new IllegalArgumentException("The file should have at least two columns.");
 				}
 				// Use do-while loop to scan first line too
 				do
 				{
+					values = str.split(",");
+					// Ensure a non-jagged array
+					if(values.length < numColumns)
+					{
+						throw new IllegalArgumentException("Every row should contain one number for every columns in the file header.");
+					}
 					try
 					{
-						values = str.split(",");
 						currentRow = new double[numColumns];
 						// Ignore data in rows with more entries than in the header
 						for (int i = 0; i < numColumns; i++)
@@ -114,44 +125,45 @@ public class Kohonen extends JFrame
 					// Ensure the data are parsed to numeric
 					catch(NumberFormatException nfe)
 					{
-						JOptionPane.showMessageDialog(null, "The file should contain only numeric data.");
-						return;
-					}
-					// Ensure a non-jagged array
-					catch(NoSuchElementException nsee)
-					{
-						JOptionPane.showMessageDialog(null, "Every row should contain one number for every columns in the file header.");
-						return;
+						throw new IllegalArgumentException("The file should contain only numeric data.");
 					}
 				} while ((str = in.readLine()) != null);
 			}
-			in.close();
 		}
 		catch (IOException ioe)
 		{
-			JOptionPane.showMessageDialog(null, "IOException during file reading: " + ioe.getMessage());
+			throw new IOException("IOException during file reading: " + ioe.getMessage());
 		}
-		
-		// Ensure # rows >= # cols
-		if(inputData.size() < numColumns)
+		finally
 		{
-			JOptionPane.showMessageDialog(null, "There must be at least as many data rows as columns in the file.");
-			return;
+			in.close();
 		}
 		
-		// The data has passed validity checks, so convert to an array
-		double[][] validData = new double[inputData.size()][numColumns];
-		double [] tmpArray;
-		for(int i = 0; i < inputData.size(); i++)
+		// Ensure # rows >= # cols
+		if(inputData.size() < numColumns || inputData.size() < 2)
 		{
-			tmpArray = inputData.get(i);
-			for(int j = 0; j < numColumns; j++)
-			{
-				validData[i][j] = tmpArray[j];
-			}
+			throw new IllegalArgumentException("There must be at least as many data rows as columns in the file.");
 		}
 		
-		// Convert to a grid object
+		// The data has passed validity checks, so hand the
+		// parsed rows over to a Dataset without copying them
+		return Dataset.wrap(inputData.toArray(new double[0][]));
+	}
+	
+	
+	/**
+	 * Read in and train on the input csv data.
+	 * The map settings are checked on the event
+	 * dispatch thread, then the file is read and the
+	 * network trained on a background thread while
+	 * a window shows the progress and a live preview
+	 * of the map, with a button to cancel training.
+	 * 
+	 * @param input The file object to read in
+	 * 
+	 * */
+	public void train(String input)
+	{
 		int xVal;
 		int yVal;
 		int epochVal;
@@ -170,106 +182,204 @@ public class Kohonen extends JFrame
 			JOptionPane.showMessageDialog(null, "The grid dimensions and training epochs must be positive integers.");
 			return;
 		}
-		// Create the SOM object
-		long startTime = System.nanoTime();
-		//JFrame status = new JFrame("Training the Kohonen network...");
-		//status.setVisible(true);
-		//status.setSize(100, 100);
-		JOptionPane.showMessageDialog(null,"Training the Kohonen network. Please be patient.\nThis may take a while for large datasets, networks, and epochs.");
-		SOM training = new SOM(validData, xVal, yVal, epochVal);
-		// Train the Kohonen network
-		training.train();
-		long endTime = System.nanoTime();
-		//System.out.println("" + (endTime - startTime / 1000000));
-		// Plot the network as a heatmap
-		//status.setVisible(false);
-		plot(training);
+		
+		// Create the status window
+		final JDialog status = new JDialog((Frame)null, "Training the Kohonen network...", false);
+		final JProgressBar progressBar = new JProgressBar(0, 100);
+		progressBar.setStringPainted(true);
+		final JLabel preview = new JLabel();
+		preview.setPreferredSize(new Dimension(200, 200));
+		preview.setHorizontalAlignment(SwingConstants.CENTER);
+		JButton cancelButton = new JButton("Cancel");
+		
+		final TrainingWorker worker = new TrainingWorker(input, xVal, yVal, epochVal, status, preview);
+		worker.addPropertyChangeListener(new java.beans.PropertyChangeListener()
+		{
+			public void propertyChange(java.beans.PropertyChangeEvent e)
+			{
+				if(e.getPropertyName().equals("progress"))
+				{
+					progressBar.setValue((Integer)e.getNewValue());
+				}
+			}
+		});
+		cancelButton.addActionListener(new ActionListener()
+		{
+			public void actionPerformed(ActionEvent e)
+			{
+				worker.stop();
+			}
+		});
+		status.addWindowListener(new WindowAdapter()
+		{
+			public void windowClosing(WindowEvent e)
+			{
+				worker.stop();
+			}
+		});
+		
+		status.add(progressBar, BorderLayout.NORTH);
+		status.add(preview, BorderLayout.CENTER);
+		status.add(cancelButton, BorderLayout.SOUTH);
+		status.pack();
+		status.setVisible(true);
+		worker.execute();
+	}
+	
+	
+	/**
+	 * Background task for reading the data
+	 * and training the Kohonen network.
+	 * 
+	 * */
+	class TrainingWorker extends SwingWorker<SOM, int[]> implements TrainingListener
+	{
+		private final String input;
+		private final int xVal;
+		private final int yVal;
+		private final int epochVal;
+		private final JDialog status;
+		private final JLabel preview;
+		private final MapRenderer renderer;
+		private volatile SOM training;
+		
+		TrainingWorker(String input, int xVal, int yVal, int epochVal, JDialog status, JLabel preview)
+		{
+			this.input = input;
+			this.xVal = xVal;
+			this.yVal = yVal;
+			this.epochVal = epochVal;
+			this.status = status;
+			this.preview = preview;
+			this.renderer = new MapRenderer(xVal, yVal);
+			this.renderer.setShading(colorBox.getSelectedItem().toString());
+			this.renderer.setCellSize(Math.max(1, 200 / Math.max(xVal, yVal)));
+		}
+		
+		/**
+		 * Stop reading or training as soon as possible.
+		 * 
+		 * */
+		void stop()
+		{
+			cancel(false);
+			SOM som = this.training;
+			if(som != null)
+			{
+				som.cancel();
+			}
+		}
+		
+		protected SOM doInBackground() throws Exception
+		{
+			// Create the SOM object
+			SOM som = new SOM(readFile(input), xVal, yVal, epochVal);
+			som.setListener(this);
+			this.training = som;
+			// The cancel button may have been pressed while reading
+			if(isCancelled())
+			{
+				som.cancel();
+			}
+			// Train the Kohonen network
+			som.train();
+			return som;
+		}
+		
+		public void progress(long iteration, long iterations)
+		{
+			setProgress((int)(100 * iteration / iterations));
+		}
+		
+		public void snapshot(double [][] weights, int [] hits)
+		{
+			publish(hits);
+		}
+		
+		protected void process(java.util.List <int[]> chunks)
+		{
+			// Only show the latest snapshot
+			int [] hits = chunks.get(chunks.size() - 1);
+			double [] values = new double[hits.length];
+			for(int i = 0; i < hits.length; i++)
+			{
+				values[i] = hits[i];
+			}
+			preview.setIcon(new ImageIcon(renderer.render(values)));
+		}
+		
+		protected void done()
+		{
+			status.dispose();
+			try
+			{
+				// Plot the network as a heatmap
+				plot(get());
+			}
+			catch(java.util.concurrent.CancellationException ce)
+			{
+				// Training was cancelled by the user
+			}
+			catch(InterruptedException ie)
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch(java.util.concurrent.ExecutionException ee)
+			{
+				if(!(ee.getCause() instanceof java.util.concurrent.CancellationException))
+				{
+					JOptionPane.showMessageDialog(null, ee.getCause().getMessage());
+				}
+			}
+		}
 	}
 	
 	/**
 	 * Plot the trained Kohonen network.
 	 * 
-	 * This method takes as inputs the x dimension
-	 * of the map, the y dimension of the map, and 
-	 * an array for the node labels of each observation
+	 * This method takes a trained SOM object
 	 * and produces a grid heatmap showing the count
-	 * of observations assigned to each node.
+	 * of observations assigned to each node,
+	 * the mean distance from the observations to
+	 * their node, or the U-matrix of the map. The map is rendered into a single
+	 * image that is stretched to fill the window.
 	 * 
+	 * @param som The trained SOM object
 	 * 
 	 * */
 	 public void plot(SOM som)
 	 {
-	 	int xDim = som.getXDim();
-	 	int yDim = som.getYDim();
-	 	int[] nodes = som.getNodes();
-		 // Determine the number of observations assigned to each node
-		 int [] counts = new int[xDim * yDim];
-		 for(int i = 0; i < nodes.length; i++)
+		 MapRenderer renderer = new MapRenderer(som.getXDim(), som.getYDim());
+		 renderer.setShading(colorBox.getSelectedItem().toString());
+		 renderer.setTopology(som.getTopology());
+		 double [] values;
+		 if(plotBox.getSelectedItem().equals("Distances"))
 		 {
-			 counts[nodes[i]] += 1;
+			 values = MapRenderer.meanDistances(som);
 		 }
-		 // Determine the maximum and minimum counts for shading
-		 int maxCount = 0;
-		 int minCount = Integer.MAX_VALUE;
-		 for(int i = 0; i < counts.length; i++)
+		 else if(plotBox.getSelectedItem().equals("U-matrix"))
 		 {
-			if(counts[i] < minCount)
-			{
-				minCount = counts[i];
-			}
-			if(counts[i] > maxCount)
-			{
-				maxCount = counts[i];
-			}
-			//System.out.println("Node " + i + ": " + counts[i]);
+			 values = som.getUMatrix();
+		 }
+		 else
+		 {
+			 values = MapRenderer.counts(som);
 		 }
+		 final Image image = renderer.render(values);
 		 // Create the window
 		 JFrame map = new JFrame ("Kohonen network");
-		 // Set the output resolution, don't let it exceed 1024x768
-		 //double aspectRatio = (double)xdim / yDim;
-		 String col = colorBox.getSelectedItem().toString();
 		 map.setSize(800, 600);
-		 map.setLayout (new GridLayout(yDim, xDim));
-		 
-		 // Plot the counts
-		 JButton [] jB = new JButton[counts.length];
-		 // Set the colors
-		 float r = 0;
-		 float g = 0;
-		 float b = 0;
-		 // Fill top to bottom, left to right
-		 // instead of left to right, top to bttom
-		 int index;
-		 int columnCount = 0;
-		 for(int i = 0; i < counts.length; i++)
+		 map.add(new JPanel()
 		 {
-			 // Calculuate the element to use since we're
-			 // filling from top to bottom, left to right
-			 index = (i / xDim) + columnCount * yDim;
-			 // Get the RGB values
-			 if(col.equals("Red"))
-			 {
-				 r = (float)counts[index] / maxCount;
-			 }
-			 else if(col.equals("Green"))
+			 protected void paintComponent(Graphics g)
 			 {
-				 g = (float)counts[index] / maxCount;
+				 super.paintComponent(g);
+				 // Keep the cells sharp when they are stretched
+				 ((Graphics2D)g).setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					 RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+				 g.drawImage(image, 0, 0, getWidth(), getHeight(), null);
 			 }
-			 else
-			 {
-				 b = (float)counts[index] / maxCount;
-			 }
-			 jB[index] = new JButton("");
-			 jB[index].setBackground(new Color(r, g, b));
-			 jB[index].setOpaque(true);
-			 map.add(jB[index]);
-			 columnCount++;
-			 // Reset the column count if it grows too large
-			 if(columnCount >= xDim)
-			 {
-				 columnCount = 0;
-			 }
-		 }
+		 });
 		 map.setVisible(true); 
 	 }
 	
@@ -290,10 +400,8 @@ public class Kohonen extends JFrame
 				int result = fc.showOpenDialog(null);
 				if (result == JFileChooser.APPROVE_OPTION)
 				{
-					// Ensure the ArrayList is empty, e.g. user loads a file after first one failed
-					inputData.clear();
 					File inputFile = fc.getSelectedFile();
-					readFile(inputFile.getAbsolutePath());
+					train(inputFile.getAbsolutePath());
 				}
 			}
 		}
@@ -318,6 +426,9 @@ public class Kohonen extends JFrame
 		//String [] colors = new String[]{"Red", "Green", "Blue"};
 		window.add(colorBox);
 		
+		//Plot
+		window.add(plotBox);
+		
 		//Epochs
 		JLabel epochLabel = new JLabel("Training epochs");
 		window.add(epochLabel);
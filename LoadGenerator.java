@@ -0,0 +1,198 @@
+//LoadGenerator.java
+/**
+ * Measure the throughput and latency of a ScoringServer.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * Several client threads post random rows to a server
+ * on this machine as fast as it answers, and the request
+ * rate, row rate and client-side latency percentiles are
+ * printed once every request is done. Requests use the
+ * binary format unless "json" is given. Usage:
+ *
+ * java LoadGenerator port threads requests rowsPerRequest columns [binary|json]
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+public class LoadGenerator
+{
+	// Main method
+	public static void main(String [] args) throws InterruptedException
+	{
+		if(args.length < 5)
+		{
+			System.err.println("Usage: java LoadGenerator port threads requests rowsPerRequest columns [binary|json]");
+			return;
+		}
+		final URL url;
+		final int threads;
+		final int requests;
+		final int rowsPerRequest;
+		final int columns;
+		try
+		{
+			url = new URL("http://localhost:" + Integer.parseInt(args[0]) + "/score");
+			threads = Integer.parseInt(args[1]);
+			requests = Integer.parseInt(args[2]);
+			rowsPerRequest = Integer.parseInt(args[3]);
+			columns = Integer.parseInt(args[4]);
+		}
+		catch(NumberFormatException | MalformedURLException e)
+		{
+			System.err.println("The settings should be positive integers.");
+			return;
+		}
+		final boolean json = args.length > 5 && args[5].equals("json");
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final long [] latencies = new long[requests];
+
+		ExecutorService clients = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		for(int t = 0; t < threads; t++)
+		{
+			clients.execute(new Runnable()
+			{
+				public void run()
+				{
+					Random random = ThreadLocalRandom.current();
+					int request;
+					while((request = next.getAndIncrement()) < requests)
+					{
+						long begin = System.nanoTime();
+						try
+						{
+							post(url, body(random, rowsPerRequest, columns, json), json);
+						}
+						catch(IOException ioe)
+						{
+							failures.incrementAndGet();
+						}
+						latencies[request] = System.nanoTime() - begin;
+					}
+				}
+			});
+		}
+		clients.shutdown();
+		clients.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		Arrays.sort(latencies);
+		System.out.printf("%d requests of %d rows on %d threads in %.2f s, %d failed%n",
+			requests, rowsPerRequest, threads, seconds, failures.get());
+		System.out.printf("%.1f requests/s, %.1f rows/s%n", requests / seconds,
+			(long)requests * rowsPerRequest / seconds);
+		if(requests > 0)
+		{
+			System.out.printf("latency ms: p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n",
+				latencies[(int)(requests * 0.5)] / 1e6, latencies[(int)(requests * 0.9)] / 1e6,
+				latencies[(int)(requests * 0.99)] / 1e6, latencies[requests - 1] / 1e6);
+		}
+	}
+
+
+	/**
+	 * Build a request body of random standard normal rows.
+	 *
+	 * @param random The random number generator
+	 * @param rows The number of rows
+	 * @param columns The number of columns
+	 * @param json Whether to use JSON rather than the binary format
+	 *
+	 * @return The body
+	 *
+	 * */
+	private static byte [] body(Random random, int rows, int columns, boolean json) throws IOException
+	{
+		if(json)
+		{
+			StringBuilder text = new StringBuilder("{\"rows\": [");
+			for(int i = 0; i < rows; i++)
+			{
+				text.append(i > 0 ? ", [" : "[");
+				for(int k = 0; k < columns; k++)
+				{
+					text.append(k > 0 ? ", " : "").append(random.nextGaussian());
+				}
+				text.append(']');
+			}
+			return text.append("]}").toString().getBytes("UTF-8");
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(8 + rows * columns * 8);
+		DataOutputStream out = new DataOutputStream(buffer);
+		out.writeInt(rows);
+		out.writeInt(columns);
+		for(int i = 0; i < rows * columns; i++)
+		{
+			out.writeDouble(random.nextGaussian());
+		}
+		out.flush();
+		return buffer.toByteArray();
+	}
+
+
+	/**
+	 * Post a request and read the whole response.
+	 *
+	 * @param url The scoring endpoint
+	 * @param body The request body
+	 * @param json Whether the body is JSON
+	 *
+	 * */
+	private static void post(URL url, byte [] body, boolean json) throws IOException
+	{
+		HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(body.length);
+		connection.setRequestProperty("Content-Type", json ? "application/json" : "application/octet-stream");
+		OutputStream out = connection.getOutputStream();
+		try
+		{
+			out.write(body);
+		}
+		finally
+		{
+			out.close();
+		}
+		if(connection.getResponseCode() != 200)
+		{
+			throw new IOException("HTTP " + connection.getResponseCode());
+		}
+		InputStream in = connection.getInputStream();
+		try
+		{
+			byte [] chunk = new byte[8192];
+			while(in.read(chunk) != -1)
+			{
+				// Drain the response so the connection can be reused
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+//LocalTransport.java
+/**
+ * Reach the shards of a distributed training in this process.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * The workers are called directly, without copying the
+ * weights or sums, so a DistributedSOM can be tried out
+ * and compared with the other transports without starting
+ * any worker processes.
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.util.*;
+public class LocalTransport implements Transport
+{
+	// The shards
+	private final List <ShardWorker> workers;
+
+
+	/**
+	 * Constructor for the LocalTransport.
+	 *
+	 * @param workers The workers holding the shards
+	 *
+	 * */
+	public LocalTransport(List <ShardWorker> workers)
+	{
+		if(workers.isEmpty())
+		{
+			throw new IllegalArgumentException();
+		}
+		this.workers = new ArrayList <>(workers);
+	}
+
+
+	/**
+	 * Split a Dataset into shards of about equal size.
+	 *
+	 * @param data The data
+	 * @param shards The number of shards
+	 *
+	 * @return A LocalTransport for the shards
+	 *
+	 * */
+	public static LocalTransport split(Dataset data, int shards)
+	{
+		if(shards <= 0 || shards > data.getRows())
+		{
+			throw new IllegalArgumentException();
+		}
+		List <ShardWorker> workers = new ArrayList <>();
+		for(int s = 0; s < shards; s++)
+		{
+			ShardWorker worker = new ShardWorker(data.subset(
+				(int)((long)data.getRows() * s / shards), (int)((long)data.getRows() * (s + 1) / shards)));
+			// The shards already run concurrently
+			worker.setThreads(Math.max(1, Runtime.getRuntime().availableProcessors() / shards));
+			workers.add(worker);
+		}
+		return new LocalTransport(workers);
+	}
+
+
+	/**
+	 * Hand out the workers themselves.
+	 *
+	 * @return The workers
+	 *
+	 * */
+	public List <Shard> connect()
+	{
+		return new ArrayList <Shard>(this.workers);
+	}
+
+
+	/**
+	 * Nothing to close, as the workers live in this process.
+	 *
+	 * */
+	public void close()
+	{
+	}
+}
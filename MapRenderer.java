@@ -0,0 +1,355 @@
+//MapRenderer.java
+/**
+ * Render a trained self-organizing map as an image.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * This class paints one value per node, such as the
+ * count of observations assigned to the node or the
+ * U-matrix, straight into the pixels of a BufferedImage.
+ * The map is filled
+ * top to bottom, left to right like the plot in the GUI,
+ * the brightest shade marks the largest value and black
+ * marks zero. On a hexagonal map the odd rows are drawn
+ * half a cell to the right, so every cell touches its six
+ * neighbors. Bands of pixel rows are painted in parallel,
+ * so maps with many thousands of nodes render quickly,
+ * and no display is needed, so images can be written on
+ * headless servers. Usage:
+ *
+ * java -Djava.awt.headless=true MapRenderer data.csv xDim yDim epochs out.png
+ *     [counts|distances|umatrix] [Red|Green|Blue] [cellSize] [rectangular|hexagonal]
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.imageio.ImageIO;
+public class MapRenderer
+{
+	// Pool shared by all renderers for painting bands
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+	// Number of pixel rows painted by each task
+	private static final int BAND_HEIGHT = 64;
+	// The largest side of an image with automatic cell sizes
+	private static final int MAX_SIDE = 1200;
+
+	// X dimension of the map
+	private int xDim;
+	// Y dimension of the map
+	private int yDim;
+	// Width and height of each node in pixels
+	private int cellSize;
+	// Shading color
+	private String shading = "Red";
+	// Whether the odd rows are shifted for a hexagonal map
+	private boolean hexagonal;
+
+
+	/**
+	 * Constructor for the renderer.
+	 * The cell size is chosen so that the
+	 * image is at most 1200 pixels on a side.
+	 *
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 *
+	 * */
+	public MapRenderer(int xDim, int yDim)
+	{
+		if(xDim <= 0 || yDim <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.xDim = xDim;
+		this.yDim = yDim;
+		this.cellSize = Math.max(1, Math.min(40, MAX_SIDE / Math.max(xDim, yDim)));
+	}
+
+
+	/**
+	 * Setter method for cellSize.
+	 *
+	 * @param cellSize The width and height of each node in pixels
+	 *
+	 * */
+	public void setCellSize(int cellSize)
+	{
+		if(cellSize <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.cellSize = cellSize;
+	}
+
+
+	/**
+	 * Setter method for the topology of the map.
+	 *
+	 * @param topology The topology of the map, with the
+	 * dimensions of the renderer
+	 *
+	 * */
+	public void setTopology(Topology topology)
+	{
+		if(topology.getXDim() != xDim || topology.getYDim() != yDim)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.hexagonal = topology.getLayout() == Topology.Layout.HEXAGONAL;
+	}
+
+
+	/**
+	 * Setter method for shading.
+	 *
+	 * @param shading The color of the shading: "Red",
+	 * "Green" or "Blue"
+	 *
+	 * */
+	public void setShading(String shading)
+	{
+		if(!shading.equals("Red") && !shading.equals("Green") && !shading.equals("Blue"))
+		{
+			throw new IllegalArgumentException();
+		}
+		this.shading = shading;
+	}
+
+
+	/**
+	 * Render one value per node.
+	 *
+	 * @param values The value for each node, in the
+	 * order of the nodes in the SOM
+	 *
+	 * @return The image of the map
+	 *
+	 * */
+	public BufferedImage render(final double [] values)
+	{
+		if(values.length != xDim * yDim)
+		{
+			throw new IllegalArgumentException();
+		}
+		// Determine the maximum value for shading
+		double maxValue = 0;
+		for(int i = 0; i < values.length; i++)
+		{
+			if(values[i] > maxValue)
+			{
+				maxValue = values[i];
+			}
+		}
+		// Convert the values to colors once per node
+		final int [] colors = new int[values.length];
+		int shift = shading.equals("Red") ? 16 : shading.equals("Green") ? 8 : 0;
+		for(int i = 0; i < values.length; i++)
+		{
+			float level = maxValue > 0 ? (float)(values[i] / maxValue) : 0;
+			colors[i] = Math.round(Math.max(0, level) * 255) << shift;
+		}
+
+		// The shifted rows of a hexagonal map stick out by half a cell
+		final int indent = hexagonal && yDim > 1 ? cellSize / 2 : 0;
+		final int width = xDim * cellSize + indent;
+		final int height = yDim * cellSize;
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		final int [] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		List <Callable<Void>> bands = new ArrayList <>();
+		for(int top = 0; top < height; top += BAND_HEIGHT)
+		{
+			final int from = top;
+			final int to = Math.min(height, top + BAND_HEIGHT);
+			bands.add(new Callable<Void>()
+			{
+				public Void call()
+				{
+					for(int py = from; py < to; py++)
+					{
+						// The map is filled top to bottom, left to right
+						int row = py / cellSize;
+						int offset = py * width;
+						int left = (row & 1) == 1 ? indent : 0;
+						// Pixels left of a shifted row, or right of the
+						// others, stay black
+						for(int px = left; px < left + xDim * cellSize; px++)
+						{
+							pixels[offset + px] = colors[((px - left) / cellSize) * yDim + row];
+						}
+					}
+					return null;
+				}
+			});
+		}
+		for(Future<Void> band : POOL.invokeAll(bands))
+		{
+			try
+			{
+				band.get();
+			}
+			catch(InterruptedException ie)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Rendering was interrupted", ie);
+			}
+			catch(ExecutionException ee)
+			{
+				throw new IllegalStateException("Rendering failed", ee.getCause());
+			}
+		}
+		return image;
+	}
+
+
+	/**
+	 * Render one value per node into a png file.
+	 *
+	 * @param values The value for each node
+	 * @param output The file to write
+	 *
+	 * */
+	public void writePng(double [] values, File output) throws IOException
+	{
+		if(!ImageIO.write(render(values), "png", output))
+		{
+			throw new IOException("No png writer is available");
+		}
+	}
+
+
+	/**
+	 * Count the observations assigned to each node.
+	 *
+	 * @param som A trained SOM
+	 *
+	 * @return The number of observations for each node
+	 *
+	 * */
+	public static double [] counts(SOM som)
+	{
+		int [] nodes = som.getNodes();
+		double [] counts = new double[som.getXDim() * som.getYDim()];
+		for(int i = 0; i < nodes.length; i++)
+		{
+			counts[nodes[i]] += 1;
+		}
+		return counts;
+	}
+
+
+	/**
+	 * Calculate the mean distance from the
+	 * observations assigned to each node to the node.
+	 *
+	 * @param som A trained SOM
+	 *
+	 * @return The mean distance for each node, or zero
+	 * for nodes without observations
+	 *
+	 * */
+	public static double [] meanDistances(SOM som)
+	{
+		int [] nodes = som.getNodes();
+		double [] distances = som.getDistances();
+		double [] counts = counts(som);
+		double [] result = new double[counts.length];
+		for(int i = 0; i < nodes.length; i++)
+		{
+			// The stored distances are squared
+			result[nodes[i]] += Math.sqrt(distances[i]);
+		}
+		for(int i = 0; i < result.length; i++)
+		{
+			if(counts[i] > 0)
+			{
+				result[i] /= counts[i];
+			}
+		}
+		return result;
+	}
+
+
+	// Main method
+	public static void main(String [] args)
+	{
+		if(args.length < 5)
+		{
+			System.err.println("Usage: java MapRenderer data.csv xDim yDim epochs out.png"
+				+ " [counts|distances|umatrix] [Red|Green|Blue] [cellSize] [rectangular|hexagonal]");
+			return;
+		}
+		try
+		{
+			int xDim = Integer.parseInt(args[1]);
+			int yDim = Integer.parseInt(args[2]);
+			int epochs = Integer.parseInt(args[3]);
+			SOM som = new SOM(Dataset.readCsv(args[0]), xDim, yDim, epochs);
+			if(args.length > 8)
+			{
+				if(args[8].equals("hexagonal"))
+				{
+					som.setTopology(new Topology(xDim, yDim, Topology.Layout.HEXAGONAL, false));
+				}
+				else if(!args[8].equals("rectangular"))
+				{
+					throw new IllegalArgumentException();
+				}
+			}
+			som.train();
+			MapRenderer renderer = new MapRenderer(xDim, yDim);
+			renderer.setTopology(som.getTopology());
+			if(args.length > 6)
+			{
+				renderer.setShading(args[6]);
+			}
+			if(args.length > 7)
+			{
+				renderer.setCellSize(Integer.parseInt(args[7]));
+			}
+			String plot = args.length > 5 ? args[5] : "counts";
+			double [] values;
+			if(plot.equals("distances"))
+			{
+				values = meanDistances(som);
+			}
+			else if(plot.equals("umatrix"))
+			{
+				values = som.getUMatrix();
+			}
+			else
+			{
+				values = counts(som);
+			}
+			renderer.writePng(values, new File(args[4]));
+		}
+		catch(IOException ioe)
+		{
+			System.err.println("IOException: " + ioe.getMessage());
+		}
+		catch(IllegalArgumentException iae)
+		{
+			System.err.println("The file should contain a rectangular numeric array with at least two columns"
+				+ " and as many rows as columns, and the map settings should be positive integers.");
+		}
+	}
+}
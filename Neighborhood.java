@@ -0,0 +1,180 @@
+//Neighborhood.java
+/**
+ * Neighborhood functions for training self-organizing maps.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * A neighborhood function decides how strongly a node
+ * is pulled towards an observation given its distance
+ * on the map from the best matching unit and the current
+ * neighborhood radius. The weight multiplies the learning
+ * rate, so the best matching unit (distance zero) always
+ * receives the full update. The truncated Gaussian is
+ * cut off at a number of standard deviations, which
+ * bounds how many nodes each update touches.
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+public enum Neighborhood
+{
+	/**
+	 * Every node within the radius receives the full update
+	 * and nodes outside it receive none.
+	 *
+	 * */
+	BUBBLE
+	{
+		public double weight(double distance, double radius)
+		{
+			return distance <= radius ? 1 : 0;
+		}
+
+		public boolean isTruncated()
+		{
+			return true;
+		}
+
+		public double reach(double radius, double cutoff)
+		{
+			return radius;
+		}
+	},
+
+	/**
+	 * The update falls off smoothly with a Gaussian
+	 * curve whose standard deviation is half the radius,
+	 * so nodes at the radius receive about 14% of the
+	 * update. Every node on the map is updated.
+	 *
+	 * */
+	GAUSSIAN
+	{
+		public double weight(double distance, double radius)
+		{
+			double sd = radius / 2;
+			return Math.exp(-(distance * distance) / (2 * sd * sd));
+		}
+
+		public boolean isTruncated()
+		{
+			return false;
+		}
+
+		public double reach(double radius, double cutoff)
+		{
+			return Double.POSITIVE_INFINITY;
+		}
+	},
+
+	/**
+	 * The Gaussian neighborhood with no update for nodes
+	 * more than a cutoff number of standard deviations from
+	 * the best matching unit, which bounds the number of
+	 * nodes touched by each update. The default cutoff of
+	 * two standard deviations is the radius.
+	 *
+	 * */
+	TRUNCATED_GAUSSIAN
+	{
+		public double weight(double distance, double radius)
+		{
+			return weight(distance, radius, DEFAULT_CUTOFF);
+		}
+
+		public double weight(double distance, double radius, double cutoff)
+		{
+			return distance <= reach(radius, cutoff) ? GAUSSIAN.weight(distance, radius) : 0;
+		}
+
+		public boolean isTruncated()
+		{
+			return true;
+		}
+
+		public double reach(double radius, double cutoff)
+		{
+			return cutoff * radius / 2;
+		}
+	};
+
+
+	/**
+	 * The default cutoff of the truncated Gaussian
+	 * in standard deviations.
+	 *
+	 * */
+	public static final double DEFAULT_CUTOFF = 2;
+
+
+	/**
+	 * Calculate the weight of the update for a node.
+	 *
+	 * @param distance The distance on the map from
+	 * the node to the best matching unit
+	 * @param radius The current neighborhood radius
+	 *
+	 * @return The proportion of the update the node receives
+	 *
+	 * */
+	public abstract double weight(double distance, double radius);
+
+
+	/**
+	 * Calculate the weight of the update for a node
+	 * with a truncation cutoff.
+	 *
+	 * @param distance The distance on the map from
+	 * the node to the best matching unit
+	 * @param radius The current neighborhood radius
+	 * @param cutoff The number of standard deviations (half
+	 * radii) beyond which a truncated Gaussian gives no update
+	 *
+	 * @return The proportion of the update the node receives
+	 *
+	 * */
+	public double weight(double distance, double radius, double cutoff)
+	{
+		return weight(distance, radius);
+	}
+
+
+	/**
+	 * Whether nodes outside the radius receive no update.
+	 *
+	 * @return Whether the neighborhood is cut off at the radius
+	 *
+	 * */
+	public abstract boolean isTruncated();
+
+
+	/**
+	 * The largest distance from the best matching unit
+	 * that receives an update.
+	 *
+	 * @param radius The current neighborhood radius
+	 * @param cutoff The number of standard deviations (half
+	 * radii) beyond which a truncated Gaussian gives no update
+	 *
+	 * @return The reach of the neighborhood, infinite if
+	 * every node is updated
+	 *
+	 * */
+	public abstract double reach(double radius, double cutoff);
+}
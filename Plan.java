@@ -0,0 +1,374 @@
+//Plan.java
+/**
+ * A training strategy chosen by a Planner.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * A Plan records how a map is to be trained on a
+ * dataset: how the rows are stored, which training
+ * algorithm runs on how many threads, the order the
+ * rows are presented in and the precision of the weights
+ * used for scoring afterwards, together with the memory
+ * and time the Planner predicted for it. Training always
+ * uses double precision, and the weights are only
+ * quantized afterwards if the Planner was asked to.
+ * Sparse rows are scaled without centering, so dense
+ * data trained as sparse rows give a different map; the
+ * Planner only does that for data that are almost all
+ * zeros. train() carries the plan out and refuses to
+ * start if the predicted memory is more than the heap
+ * has available.
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.*;
+public class Plan
+{
+	/**
+	 * How the rows are stored during training.
+	 *
+	 * */
+	public enum Storage
+	{
+		/** Every value of every row, as a Dataset */
+		DENSE,
+		/** Only the nonzero values, as a SparseDataset */
+		SPARSE
+	}
+
+	/**
+	 * The training algorithm.
+	 *
+	 * */
+	public enum Strategy
+	{
+		/** Online training on one thread with SOM.train() */
+		SEQUENTIAL,
+		/** Lock-free online training with SOM.train(threads) */
+		PARALLEL,
+		/** Batch training on shards with a DistributedSOM in this process */
+		BATCH
+	}
+
+	/**
+	 * The precision of the weights of the Codebook
+	 * returned by train().
+	 *
+	 * */
+	public enum Precision
+	{
+		/** The exact weights */
+		DOUBLE,
+		/** 16 bit weights with exact reranking */
+		INT16,
+		/** 8 bit weights with exact reranking */
+		INT8
+	}
+
+	private static final Logger LOGGER = Logger.getLogger(Plan.class.getName());
+	// Nearest candidates reranked by quantized codebooks
+	private static final int CANDIDATES = 8;
+
+	// The training data; one of them is null, and dense
+	// plans are only made for dense data
+	private final Dataset data;
+	private final SparseDataset sparseData;
+	// The map
+	private final int xDim;
+	private final int yDim;
+	private final int epochs;
+	private final Neighborhood kernel;
+	// The choices
+	private final Storage storage;
+	private final Strategy strategy;
+	private final int threads;
+	private final Sampling sampling;
+	private final Precision precision;
+	// The predictions
+	private final long predictedBytes;
+	private final long availableBytes;
+	private final double predictedSeconds;
+
+	// Results
+	private double quantizationError = Double.NaN;
+
+
+	/**
+	 * Constructor for the Plan, used by the Planner.
+	 *
+	 * */
+	Plan(Dataset data, SparseDataset sparseData, int xDim, int yDim, int epochs, Neighborhood kernel,
+		Storage storage, Strategy strategy, int threads, Sampling sampling, Precision precision,
+		long predictedBytes, long availableBytes, double predictedSeconds)
+	{
+		this.data = data;
+		this.sparseData = sparseData;
+		this.xDim = xDim;
+		this.yDim = yDim;
+		this.epochs = epochs;
+		this.kernel = kernel;
+		this.storage = storage;
+		this.strategy = strategy;
+		this.threads = threads;
+		this.sampling = sampling;
+		this.precision = precision;
+		this.predictedBytes = predictedBytes;
+		this.availableBytes = availableBytes;
+		this.predictedSeconds = predictedSeconds;
+	}
+
+
+	/**
+	 * Getter method for storage.
+	 *
+	 * @return How the rows are stored during training
+	 *
+	 * */
+	public Storage getStorage()
+	{
+		return this.storage;
+	}
+
+
+	/**
+	 * Getter method for strategy.
+	 *
+	 * @return The training algorithm
+	 *
+	 * */
+	public Strategy getStrategy()
+	{
+		return this.strategy;
+	}
+
+
+	/**
+	 * Getter method for threads.
+	 *
+	 * @return The number of training threads, or of
+	 * shards for batch training
+	 *
+	 * */
+	public int getThreads()
+	{
+		return this.threads;
+	}
+
+
+	/**
+	 * Getter method for sampling.
+	 *
+	 * @return The order the rows are presented in
+	 * by sequential training
+	 *
+	 * */
+	public Sampling getSampling()
+	{
+		return this.sampling;
+	}
+
+
+	/**
+	 * Getter method for precision.
+	 *
+	 * @return The precision of the weights used for scoring
+	 *
+	 * */
+	public Precision getPrecision()
+	{
+		return this.precision;
+	}
+
+
+	/**
+	 * Getter method for predictedBytes.
+	 *
+	 * @return The predicted memory for training in bytes
+	 *
+	 * */
+	public long getPredictedBytes()
+	{
+		return this.predictedBytes;
+	}
+
+
+	/**
+	 * Getter method for availableBytes.
+	 *
+	 * @return The memory the heap had available when
+	 * the plan was made, in bytes
+	 *
+	 * */
+	public long getAvailableBytes()
+	{
+		return this.availableBytes;
+	}
+
+
+	/**
+	 * Getter method for predictedSeconds.
+	 *
+	 * @return The predicted training time in seconds
+	 *
+	 * */
+	public double getPredictedSeconds()
+	{
+		return this.predictedSeconds;
+	}
+
+
+	/**
+	 * Whether the predicted memory fits in the heap.
+	 *
+	 * @return Whether training can start
+	 *
+	 * */
+	public boolean fits()
+	{
+		return this.predictedBytes <= this.availableBytes;
+	}
+
+
+	/**
+	 * The mean distance from each observation to its
+	 * nearest node after training.
+	 *
+	 * @return The quantization error, or NaN before training
+	 *
+	 * */
+	public double quantizationError()
+	{
+		return this.quantizationError;
+	}
+
+
+	/**
+	 * Train the map as planned.
+	 *
+	 * @return The Codebook of the trained map, quantized
+	 * only if a quantized precision was asked for
+	 *
+	 * @throws IllegalStateException If the predicted memory
+	 * is more than the heap had available
+	 *
+	 * */
+	public Codebook train()
+	{
+		if(!fits())
+		{
+			throw new IllegalStateException(String.format(
+				"Training needs about %d MB but only %d MB of the heap are available",
+				this.predictedBytes >> 20, this.availableBytes >> 20));
+		}
+		long start = System.nanoTime();
+		Codebook codebook;
+		if(this.strategy == Strategy.BATCH)
+		{
+			DistributedSOM som = new DistributedSOM(LocalTransport.split(this.data, this.threads),
+				this.xDim, this.yDim, this.epochs);
+			som.setKernel(this.kernel);
+			try
+			{
+				codebook = som.train();
+			}
+			catch(IOException ioe)
+			{
+				// Shards in this process do not do any I/O
+				throw new IllegalStateException(ioe);
+			}
+			this.quantizationError = som.quantizationError();
+		}
+		else
+		{
+			SOM som = this.storage == Storage.SPARSE ? new SOM(sparseData(), this.xDim, this.yDim, this.epochs)
+				: new SOM(this.data, this.xDim, this.yDim, this.epochs);
+			som.setKernel(this.kernel);
+			som.setSampling(this.sampling);
+			if(this.strategy == Strategy.PARALLEL)
+			{
+				som.train(this.threads);
+			}
+			else
+			{
+				som.train();
+			}
+			codebook = som.getCodebook();
+			this.quantizationError = som.quantizationError();
+		}
+		LOGGER.info(String.format("Trained in %.1f s (predicted %.1f s), quantization error %.4f",
+			(System.nanoTime() - start) / 1e9, this.predictedSeconds, this.quantizationError));
+		if(this.precision == Precision.INT16)
+		{
+			return codebook.quantize(16, CANDIDATES);
+		}
+		if(this.precision == Precision.INT8)
+		{
+			return codebook.quantize(8, CANDIDATES);
+		}
+		return codebook;
+	}
+
+
+	/**
+	 * The training data as a SparseDataset, converting
+	 * dense data a row at a time if needed.
+	 *
+	 * */
+	private SparseDataset sparseData()
+	{
+		if(this.sparseData != null)
+		{
+			return this.sparseData;
+		}
+		SparseDataset.Builder builder = new SparseDataset.Builder(this.data.getColumns());
+		double [] row = new double[this.data.getColumns()];
+		for(int i = 0; i < this.data.getRows(); i++)
+		{
+			for(int k = 0; k < row.length; k++)
+			{
+				row[k] = this.data.get(i, k);
+			}
+			builder.addDenseRow(row);
+		}
+		return builder.build();
+	}
+
+
+	/**
+	 * A description of the plan and its predictions.
+	 *
+	 * @return The description
+	 *
+	 * */
+	public String toString()
+	{
+		String algorithm = this.strategy == Strategy.SEQUENTIAL ? "sequential online training"
+			: this.strategy == Strategy.PARALLEL ? "parallel online training on " + this.threads + " threads"
+			: "batch training on " + this.threads + " shards";
+		return String.format(Locale.ROOT, "%dx%d map, %d epochs: %s of %s rows%s, %s weights;"
+			+ " about %.1f MB of %.1f MB available, about %.1f s",
+			this.xDim, this.yDim, this.epochs, algorithm, this.storage.toString().toLowerCase(Locale.ROOT),
+			this.strategy == Strategy.BATCH ? "" : " in " + this.sampling.toString().toLowerCase(Locale.ROOT) + " order",
+			this.precision.toString().toLowerCase(Locale.ROOT),
+			this.predictedBytes / 1048576.0, this.availableBytes / 1048576.0, this.predictedSeconds);
+	}
+}
@@ -0,0 +1,463 @@
+//Planner.java
+/**
+ * Choose how to train a map from the size of the job.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * Before training, the Planner looks at the number of
+ * rows and columns and the share of zeros in the data,
+ * the number of nodes, the neighborhood function, the
+ * available cores and the free heap. It predicts the
+ * memory and time of every way of training the map that
+ * applies: sequential, parallel or batch training of
+ * dense rows, or sequential training of sparse rows. The
+ * rows keep the storage the caller gave, except that dense
+ * data that are almost all zeros may be trained as sparse
+ * rows, which are scaled without centering. It then picks
+ * the fastest plan that fits in the heap and logs it
+ * through java.util.logging. The trained weights are
+ * exact unless quantized weights are asked for with
+ * setPrecision().
+ * Times are predicted from the number of distance terms
+ * each strategy calculates and the measured speed of
+ * this machine for one term, so they are rough, but they
+ * put the strategies in the right order. Usage:
+ *
+ * java Planner data.csv xDim yDim epochs [model.bin]
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.*;
+public class Planner
+{
+	private static final Logger LOGGER = Logger.getLogger(Planner.class.getName());
+	// Bytes of an array header and of a reference
+	private static final long HEADER = 16;
+	private static final long REFERENCE = 8;
+	// Dense data larger than this are presented in groups
+	// by sequential training
+	private static final long CACHE_BYTES = 8L << 20;
+	// Share of the distance terms calculated by a search that
+	// abandons distant nodes early, from a random row and from
+	// a row's previous nearest node
+	private static final double ABANDON = 0.7;
+	private static final double GROUPED_ABANDON = 0.5;
+	// Share of ideal speedup reached by parallel training
+	private static final double PARALLEL_EFFICIENCY = 0.8;
+	// Dense data with at least this share of zeros may be
+	// trained as sparse rows
+	private static final double SPARSE_ZEROS = 0.95;
+	// Steps in the simulated neighborhood schedule
+	private static final int PHASES = 100;
+	// Measured nanoseconds for one distance term, once per process
+	private static double nanosPerTerm;
+	// Keeps the measuring loop from being optimized away
+	private static volatile double sink;
+
+	// Cores and heap available to training
+	private int cores = Runtime.getRuntime().availableProcessors();
+	private long memory = -1;
+	// Neighborhood function of the map
+	private Neighborhood kernel = Neighborhood.BUBBLE;
+	// Precision of the weights returned by the plans
+	private Plan.Precision precision = Plan.Precision.DOUBLE;
+
+
+	/**
+	 * Setter method for cores.
+	 *
+	 * @param cores The number of cores training may use.
+	 * The default is every core.
+	 *
+	 * */
+	public void setCores(int cores)
+	{
+		if(cores <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.cores = cores;
+	}
+
+
+	/**
+	 * Setter method for memory.
+	 *
+	 * @param memory The bytes of heap training may use. The
+	 * default is what the heap has free when a plan is made.
+	 *
+	 * */
+	public void setMemory(long memory)
+	{
+		if(memory <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.memory = memory;
+	}
+
+
+	/**
+	 * Setter method for kernel.
+	 *
+	 * @param kernel The neighborhood function of the map
+	 *
+	 * */
+	public void setKernel(Neighborhood kernel)
+	{
+		if(kernel == null)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.kernel = kernel;
+	}
+
+
+	/**
+	 * Setter method for precision.
+	 *
+	 * @param precision The precision of the weights of the
+	 * Codebook returned by Plan.train(). The default is
+	 * Plan.Precision.DOUBLE, the exact weights. Quantized
+	 * weights take less memory and a smaller model file but
+	 * score approximately and no faster, and a
+	 * quantized model file has no exact weights.
+	 *
+	 * */
+	public void setPrecision(Plan.Precision precision)
+	{
+		if(precision == null)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.precision = precision;
+	}
+
+
+	/**
+	 * Plan the training of a map on dense data.
+	 *
+	 * @param data The training data
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 * @param epochs The number of training rounds
+	 *
+	 * @return The fastest plan that fits in the heap, or the
+	 * smallest one if none fits
+	 *
+	 * */
+	public Plan plan(Dataset data, int xDim, int yDim, int epochs)
+	{
+		long nonZeros = 0;
+		for(int i = 0; i < data.getRows(); i++)
+		{
+			for(int k = 0; k < data.getColumns(); k++)
+			{
+				if(data.get(i, k) != 0)
+				{
+					nonZeros++;
+				}
+			}
+		}
+		return plan(data, null, data.getRows(), data.getColumns(), nonZeros, xDim, yDim, epochs);
+	}
+
+
+	/**
+	 * Plan the training of a map on sparse data.
+	 *
+	 * @param data The training data
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 * @param epochs The number of training rounds
+	 *
+	 * @return The fastest plan that fits in the heap, or the
+	 * smallest one if none fits
+	 *
+	 * */
+	public Plan plan(SparseDataset data, int xDim, int yDim, int epochs)
+	{
+		return plan(null, data, data.getRows(), data.getColumns(), data.getNonZeros(), xDim, yDim, epochs);
+	}
+
+
+	/**
+	 * Predict every strategy and pick one.
+	 *
+	 * */
+	private Plan plan(Dataset data, SparseDataset sparseData, int rows, int columns, long nonZeros,
+		int xDim, int yDim, int epochs)
+	{
+		if(xDim <= 0 || yDim <= 0 || epochs <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		int nodes = xDim * yDim;
+		if(nodes > rows)
+		{
+			throw new IllegalArgumentException("The map has more nodes than the data has rows");
+		}
+		long available = this.memory > 0 ? this.memory : freeHeap();
+		double term = nanosPerTerm();
+		Topology topology = new Topology(xDim, yDim);
+		double initNH = 1.75 * topology.variance();
+		int [] within = nodesWithin(topology);
+		Plan.Precision precision = this.precision;
+
+		// Memory shared by every strategy: the weights, the labels and the topology cache
+		long denseRowBytes = rows * (HEADER + REFERENCE + 8L * columns);
+		long sparseBytes = 12L * nonZeros + 4L * (rows + 1);
+		long common = nodes * (HEADER + REFERENCE + 8L * columns) + 12L * rows
+			+ 4L * 2 * (2 * xDim - 1) * (2 * yDim - 1);
+		double nonZerosPerRow = (double)nonZeros / rows;
+
+		// Average number of nodes updated by each online step
+		double updated = 0;
+		for(int p = 0; p < PHASES; p++)
+		{
+			updated += within[reach(initNH * Math.exp(-3d * p / PHASES), within.length - 1)];
+		}
+		updated /= PHASES;
+		double steps = (double)epochs * rows;
+		// One search for the nearest node of every row, as in labeling
+		double scan = (double)rows * nodes * columns * ABANDON;
+
+		List <Plan> plans = new ArrayList <>();
+		// Dense rows, for dense data only
+		if(data != null)
+		{
+			long scaledView = data.isScaled() ? 0 : denseRowBytes;
+			Sampling sampling = denseRowBytes > CACHE_BYTES ? Sampling.BMU_GROUPED : Sampling.UNIFORM;
+			double search = (double)nodes * columns * (sampling == Sampling.BMU_GROUPED ? GROUPED_ABANDON : ABANDON);
+			double online = steps * (search + updated * columns) + scan;
+			long samplingBytes = sampling == Sampling.UNIFORM ? 0 : 8L * rows + 4096L * 8 * columns;
+			plans.add(make(data, sparseData, xDim, yDim, epochs, Plan.Storage.DENSE, Plan.Strategy.SEQUENTIAL, 1,
+				sampling, precision, scaledView + common + samplingBytes + 8L * nodes, available, online * term));
+			if(this.cores > 1)
+			{
+				double parallel = (steps * ((double)nodes * columns * ABANDON + updated * columns)
+					+ scan) / (this.cores * PARALLEL_EFFICIENCY);
+				plans.add(make(data, sparseData, xDim, yDim, epochs, Plan.Storage.DENSE, Plan.Strategy.PARALLEL,
+					this.cores, Sampling.UNIFORM, precision, scaledView + common + 8L * nodes * this.cores,
+					available, parallel * term));
+
+				// Batch training scores every row each epoch and smooths the sums,
+				// which only pays off when the shards run in parallel
+				double batch = 0;
+				for(int epoch = 0; epoch <= epochs; epoch++)
+				{
+					int reach = reach(initNH * Math.exp(-3d * (epoch + 1) / epochs), within.length - 1);
+					batch += scan + (double)nodes * within[reach] * columns;
+				}
+				batch /= this.cores * PARALLEL_EFFICIENCY;
+				plans.add(make(data, sparseData, xDim, yDim, epochs, Plan.Storage.DENSE, Plan.Strategy.BATCH,
+					this.cores, Sampling.UNIFORM, precision, denseRowBytes + common
+					+ (this.cores + 3L) * nodes * 8L * (columns + 1), available, batch * term));
+			}
+		}
+		// Sparse rows, which only train sequentially, for sparse data and
+		// for dense data that are almost all zeros
+		if(sparseData != null || nonZeros <= (1 - SPARSE_ZEROS) * rows * columns)
+		{
+			long sparseConversion = sparseData != null ? 0 : sparseBytes;
+			long sparseScaled = sparseData != null && sparseData.isScaled() ? 0 : sparseBytes;
+			double sparse = steps * (nodes * nonZerosPerRow + updated * (nonZerosPerRow + 1))
+				+ (double)rows * nodes * nonZerosPerRow;
+			plans.add(make(data, sparseData, xDim, yDim, epochs, Plan.Storage.SPARSE, Plan.Strategy.SEQUENTIAL, 1,
+				Sampling.UNIFORM, precision, sparseConversion + sparseScaled + common + 16L * nodes,
+				available, sparse * term));
+		}
+
+		// The fastest plan that fits, or else the smallest
+		Plan best = null;
+		for(Plan plan : plans)
+		{
+			LOGGER.fine("Considered " + plan);
+			if(best == null || (plan.fits() && (!best.fits() || plan.getPredictedSeconds() < best.getPredictedSeconds()))
+				|| (!plan.fits() && !best.fits() && plan.getPredictedBytes() < best.getPredictedBytes()))
+			{
+				best = plan;
+			}
+		}
+		if(best.fits())
+		{
+			LOGGER.info("Plan: " + best);
+		}
+		else
+		{
+			LOGGER.warning("No plan fits in the heap: " + best);
+		}
+		return best;
+	}
+
+
+	private Plan make(Dataset data, SparseDataset sparseData, int xDim, int yDim, int epochs,
+		Plan.Storage storage, Plan.Strategy strategy, int threads, Sampling sampling, Plan.Precision precision,
+		long bytes, long available, double nanos)
+	{
+		return new Plan(data, sparseData, xDim, yDim, epochs, this.kernel, storage, strategy, threads,
+			sampling, precision, bytes, available, nanos / 1e9);
+	}
+
+
+	/**
+	 * The largest distance from the best matching unit
+	 * updated at a radius.
+	 *
+	 * */
+	private int reach(double radius, int maxDistance)
+	{
+		return this.kernel.isTruncated() ? (int)Math.max(0, Math.min(maxDistance, Math.floor(radius))) : maxDistance;
+	}
+
+
+	/**
+	 * The number of nodes within each distance of the
+	 * node in the middle of the map.
+	 *
+	 * @param topology The topology of the map
+	 *
+	 * @return The number of nodes at most d steps away,
+	 * for every distance d on the map
+	 *
+	 * */
+	private static int [] nodesWithin(Topology topology)
+	{
+		int [] result = new int[topology.maxDistance() + 1];
+		int middle = (topology.getXDim() / 2) * topology.getYDim() + topology.getYDim() / 2;
+		for(int j = 0; j < topology.size(); j++)
+		{
+			result[topology.distance(middle, j)]++;
+		}
+		for(int d = 1; d < result.length; d++)
+		{
+			result[d] += result[d - 1];
+		}
+		return result;
+	}
+
+
+	/**
+	 * The heap that is free or can still be claimed.
+	 *
+	 * @return The available bytes
+	 *
+	 * */
+	private static long freeHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+	}
+
+
+	/**
+	 * Measure the time this machine takes for one term of a
+	 * squared distance, as in the search for the nearest
+	 * node. The loop runs for a few milliseconds the first
+	 * time it is needed.
+	 *
+	 * @return Nanoseconds for one term
+	 *
+	 * */
+	private static synchronized double nanosPerTerm()
+	{
+		if(nanosPerTerm > 0)
+		{
+			return nanosPerTerm;
+		}
+		Random random = new Random(1);
+		int nodes = 64;
+		int columns = 16;
+		double [][] weights = new double[nodes][columns];
+		double [] row = new double[columns];
+		for(int j = 0; j < nodes; j++)
+		{
+			for(int k = 0; k < columns; k++)
+			{
+				weights[j][k] = random.nextGaussian();
+			}
+		}
+		long terms = 200L * nodes * columns;
+		double sum = 0;
+		long start = System.nanoTime();
+		long elapsed = 0;
+		// Keep the fastest round, after the loop has been compiled
+		double best = Double.MAX_VALUE;
+		while(elapsed < 50000000L)
+		{
+			long roundStart = System.nanoTime();
+			for(int rep = 0; rep < 200; rep++)
+			{
+				row[rep % columns] = random.nextGaussian();
+				for(int j = 0; j < nodes; j++)
+				{
+					double dist = 0;
+					for(int k = 0; k < columns; k++)
+					{
+						double tmp = row[k] - weights[j][k];
+						dist += tmp * tmp;
+					}
+					sum += dist;
+				}
+			}
+			best = Math.min(best, (double)(System.nanoTime() - roundStart) / terms);
+			elapsed = System.nanoTime() - start;
+		}
+		sink = sum;
+		nanosPerTerm = best;
+		return nanosPerTerm;
+	}
+
+
+	// Main method
+	public static void main(String [] args)
+	{
+		if(args.length < 4)
+		{
+			System.err.println("Usage: java Planner data.csv xDim yDim epochs [model.bin]");
+			return;
+		}
+		try
+		{
+			Plan plan = new Planner().plan(Dataset.readCsv(args[0]), Integer.parseInt(args[1]),
+				Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+			Codebook codebook = plan.train();
+			if(args.length > 4)
+			{
+				codebook.save(new File(args[4]));
+			}
+		}
+		catch(IOException ioe)
+		{
+			System.err.println("IOException: " + ioe.getMessage());
+		}
+		catch(IllegalArgumentException iae)
+		{
+			System.err.println("The file should contain a rectangular numeric array with at least two columns"
+				+ " and as many rows as columns, and the map settings should be positive integers.");
+		}
+		catch(IllegalStateException ise)
+		{
+			System.err.println(ise.getMessage());
+		}
+	}
+}
@@ -0,0 +1,607 @@
+//QuantizedCodebook.java
+/**
+ * Codebook with weights quantized to small integers.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * Each weight is stored as an 8 or 16 bit integer
+ * multiple of a step size chosen for its column, so the
+ * weights of a map take an eighth or a quarter of the
+ * memory of the exact ones, and a quantized model file
+ * an eighth or a quarter of the size. The column steps
+ * are whole multiples of one common step, so observations
+ * rounded to the same steps are compared with the
+ * quantized weights in integer arithmetic, abandoning a
+ * node as soon as it is further than the current
+ * candidates, and the few nearest candidates are then
+ * compared again with the exact weights, so the nearest
+ * node usually matches the exact Codebook; agreement()
+ * measures how often it does on held-out data. Scoring
+ * is not faster than with the exact weights: the integer
+ * distances are not vectorized by the JIT, and the
+ * Benchmark program measured between 0.5 and 0.95 times
+ * the speed of the exact Codebook. The exact weights
+ * are shared with the Codebook that was quantized rather
+ * than copied, and only the candidates read them. A
+ * quantized model file only holds the integer weights,
+ * so a model loaded from one has no exact weights and
+ * returns the nearest node by the quantized weights.
+ * Usage for comparing the two on a csv file:
+ *
+ * java QuantizedCodebook model.bin data.csv [8|16] [candidates] [quantized.bin]
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.io.*;
+import java.util.*;
+public class QuantizedCodebook extends Codebook
+{
+	// Number of nodes compared with a batch of rows at a time
+	private static final int NODE_BLOCK = 256;
+	// Largest column step in multiples of the common step
+	private static final int MAX_MULTIPLIER = 8;
+
+	// Size of each quantized weight in bits
+	private final int bits;
+	// Largest quantized weight
+	private final int limit;
+	// Quantized weights for 8 or 16 bits, one node after another
+	private final byte [] codes8;
+	private final short [] codes16;
+	// Scaled value of the common quantization step
+	private final double step;
+	// Step of each column in common steps, so distances
+	// can be summed in integer arithmetic
+	private final int [] multiplier;
+	// Number of candidates compared with the exact weights
+	private final int candidates;
+
+
+	/**
+	 * Constructor for the QuantizedCodebook.
+	 *
+	 * @param exact The Codebook to quantize
+	 * @param bits The size of each quantized weight, 8 or 16
+	 * @param candidates The number of nearest nodes by the
+	 * quantized weights that are compared exactly
+	 *
+	 * */
+	public QuantizedCodebook(Codebook exact, int bits, int candidates)
+	{
+		super(exact.getXDim(), exact.getYDim(), exact.weightArray(), centers(exact), scales(exact));
+		if((bits != 8 && bits != 16) || candidates <= 0 || !exact.hasWeights())
+		{
+			throw new IllegalArgumentException();
+		}
+		this.bits = bits;
+		this.limit = limit(bits);
+		this.candidates = Math.min(candidates, getNodes());
+		int columns = getColumns();
+		double [] weights = weightArray();
+
+		// The step of each column maps its largest weight to the largest
+		// code, rounded up to a whole multiple of the common step
+		double [] largest = new double[columns];
+		double overall = 0;
+		for(int i = 0; i < weights.length; i++)
+		{
+			largest[i % columns] = Math.max(largest[i % columns], Math.abs(weights[i]));
+			overall = Math.max(overall, Math.abs(weights[i]));
+		}
+		this.step = overall > 0 ? overall / this.limit / MAX_MULTIPLIER : 1;
+		this.multiplier = new int[columns];
+		for(int k = 0; k < columns; k++)
+		{
+			double multiple = Math.ceil(largest[k] / this.limit / this.step);
+			this.multiplier[k] = (int)Math.min(MAX_MULTIPLIER, Math.max(1, multiple));
+		}
+		this.codes8 = bits == 8 ? new byte[weights.length] : null;
+		this.codes16 = bits == 16 ? new short[weights.length] : null;
+		for(int i = 0; i < weights.length; i++)
+		{
+			int code = quantize(weights[i], i % columns);
+			if(bits == 8)
+			{
+				this.codes8[i] = (byte)code;
+			}
+			else
+			{
+				this.codes16[i] = (short)code;
+			}
+		}
+	}
+
+
+	private QuantizedCodebook(Codebook header, int bits, byte [] codes8, short [] codes16, double step,
+		int [] multiplier)
+	{
+		super(header.getXDim(), header.getYDim(), (double [])null, centers(header), scales(header));
+		this.bits = bits;
+		this.limit = limit(bits);
+		this.codes8 = codes8;
+		this.codes16 = codes16;
+		this.step = step;
+		this.multiplier = multiplier;
+		this.candidates = 1;
+	}
+
+
+	/**
+	 * Getter method for bits.
+	 *
+	 * @return the size of each quantized weight in bits.
+	 *
+	 * */
+	public int getBits()
+	{
+		return this.bits;
+	}
+
+
+	/**
+	 * Getter method for candidates.
+	 *
+	 * @return the number of nearest nodes by the quantized
+	 * weights that are compared exactly, or one for a model
+	 * loaded without exact weights.
+	 *
+	 * */
+	public int getCandidates()
+	{
+		return this.candidates;
+	}
+
+
+	/**
+	 * Getter method for the weights of a node.
+	 *
+	 * @param node The node
+	 *
+	 * @return A copy of the scaled weights of the node,
+	 * rebuilt from the quantized weights if the exact
+	 * weights are not available
+	 *
+	 * */
+	@Override
+	public double [] getWeights(int node)
+	{
+		if(hasWeights())
+		{
+			return super.getWeights(node);
+		}
+		int columns = getColumns();
+		double [] result = new double[columns];
+		for(int k = 0; k < columns; k++)
+		{
+			result[k] = code(node * columns + k) * this.multiplier[k] * this.step;
+		}
+		return result;
+	}
+
+
+	/**
+	 * Find the nearest nodes to a batch of observations.
+	 * The rows are rounded to the quantization steps and
+	 * compared with the quantized weights of a block of
+	 * nodes at a time, and the nearest candidates for each
+	 * row are compared again using the exact weights.
+	 *
+	 * @param rows The observations in the units of
+	 * the training data
+	 * @param from The first row to score
+	 * @param to One past the last row to score
+	 * @param nodes The nearest node for each row,
+	 * starting at position zero
+	 * @param distances The squared distance from each
+	 * row to its node, starting at position zero, which
+	 * is approximate if the exact weights are not available
+	 *
+	 * */
+	@Override
+	public void score(double [][] rows, int from, int to, int [] nodes, double [] distances)
+	{
+		int batch = to - from;
+		int columns = getColumns();
+		int top = this.candidates;
+		double [] scaled = scale(rows, from, to);
+		int [] query = new int[scaled.length];
+		for(int i = 0; i < scaled.length; i++)
+		{
+			query[i] = quantize(scaled[i], i % columns);
+		}
+		// The nearest candidates of each row, nearest first
+		int [] nearest = new int[batch * top];
+		long [] nearestDistance = new long[batch * top];
+		Arrays.fill(nearestDistance, Long.MAX_VALUE);
+		if(this.codes8 != null)
+		{
+			scan8(query, batch, nearest, nearestDistance);
+		}
+		else
+		{
+			scan16(query, batch, nearest, nearestDistance);
+		}
+
+		for(int i = 0; i < batch; i++)
+		{
+			int first = i * top;
+			if(!hasWeights())
+			{
+				nodes[i] = nearest[first];
+				distances[i] = nearestDistance[first] * this.step * this.step;
+				continue;
+			}
+			// Rerank the candidates with the exact weights
+			double best = Double.MAX_VALUE;
+			for(int c = first; c < first + top; c++)
+			{
+				double dist = distance(scaled, i * columns, nearest[c]);
+				if(dist < best)
+				{
+					best = dist;
+					nodes[i] = nearest[c];
+				}
+			}
+			distances[i] = best;
+		}
+	}
+
+
+	/**
+	 * Find the nearest candidates of each row by the 8 bit
+	 * weights, a block of nodes at a time. The distance to
+	 * a node stops being summed once it reaches the furthest
+	 * candidate. The differences are at most 3 * 127 steps of
+	 * their column, or 3 * 127 * 8 common steps, so their
+	 * squares are calculated as ints.
+	 *
+	 * @param query The quantized rows
+	 * @param batch The number of rows
+	 * @param nearest The candidates of each row
+	 * @param nearestDistance The squared distance to each
+	 * candidate in common steps
+	 *
+	 * */
+	private void scan8(int [] query, int batch, int [] nearest, long [] nearestDistance)
+	{
+		byte [] codes = this.codes8;
+		int [] multiplier = this.multiplier;
+		int columns = getColumns();
+		int nodeCount = getNodes();
+		int top = this.candidates;
+		long dist;
+		int tmp;
+		for(int block = 0; block < nodeCount; block += NODE_BLOCK)
+		{
+			int blockEnd = Math.min(nodeCount, block + NODE_BLOCK);
+			for(int i = 0; i < batch; i++)
+			{
+				int rowOffset = i * columns;
+				int last = (i + 1) * top - 1;
+				long bound = nearestDistance[last];
+				for(int j = block; j < blockEnd; j++)
+				{
+					int nodeOffset = j * columns;
+					dist = 0;
+					for(int k = 0; k < columns && dist < bound; k++)
+					{
+						tmp = (query[rowOffset + k] - codes[nodeOffset + k]) * multiplier[k];
+						dist += tmp * tmp;
+					}
+					if(dist < bound)
+					{
+						insert(nearest, nearestDistance, i * top, last, j, dist);
+						bound = nearestDistance[last];
+					}
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Find the nearest candidates of each row by the 16 bit
+	 * weights, a block of nodes at a time. The distance to
+	 * a node stops being summed once it reaches the furthest
+	 * candidate.
+	 *
+	 * @param query The quantized rows
+	 * @param batch The number of rows
+	 * @param nearest The candidates of each row
+	 * @param nearestDistance The squared distance to each
+	 * candidate in common steps
+	 *
+	 * */
+	private void scan16(int [] query, int batch, int [] nearest, long [] nearestDistance)
+	{
+		short [] codes = this.codes16;
+		int [] multiplier = this.multiplier;
+		int columns = getColumns();
+		int nodeCount = getNodes();
+		int top = this.candidates;
+		long dist;
+		int tmp;
+		for(int block = 0; block < nodeCount; block += NODE_BLOCK)
+		{
+			int blockEnd = Math.min(nodeCount, block + NODE_BLOCK);
+			for(int i = 0; i < batch; i++)
+			{
+				int rowOffset = i * columns;
+				int last = (i + 1) * top - 1;
+				long bound = nearestDistance[last];
+				for(int j = block; j < blockEnd; j++)
+				{
+					int nodeOffset = j * columns;
+					dist = 0;
+					for(int k = 0; k < columns && dist < bound; k++)
+					{
+						tmp = (query[rowOffset + k] - codes[nodeOffset + k]) * multiplier[k];
+						dist += (long)tmp * tmp;
+					}
+					if(dist < bound)
+					{
+						insert(nearest, nearestDistance, i * top, last, j, dist);
+						bound = nearestDistance[last];
+					}
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Insert a node into the sorted candidates of a row,
+	 * dropping the furthest one.
+	 *
+	 * @param nearest The candidates of each row
+	 * @param nearestDistance The distance to each candidate
+	 * @param first The position of the row's nearest candidate
+	 * @param last The position of the row's furthest candidate
+	 * @param node The node
+	 * @param dist The distance to the node
+	 *
+	 * */
+	private static void insert(int [] nearest, long [] nearestDistance, int first, int last, int node, long dist)
+	{
+		int pos = last;
+		while(pos > first && nearestDistance[pos - 1] > dist)
+		{
+			nearestDistance[pos] = nearestDistance[pos - 1];
+			nearest[pos] = nearest[pos - 1];
+			pos--;
+		}
+		nearestDistance[pos] = dist;
+		nearest[pos] = node;
+	}
+
+
+	/**
+	 * Round a scaled value to a whole number of steps of
+	 * its column. Values beyond the weights are limited to
+	 * twice the largest code; such rows are far from every
+	 * node and the exact comparison of the candidates
+	 * corrects them.
+	 *
+	 * @param value The scaled value
+	 * @param column The column of the value
+	 *
+	 * @return The value in quantization steps
+	 *
+	 * */
+	private int quantize(double value, int column)
+	{
+		double code = Math.rint(value / (this.multiplier[column] * this.step));
+		return (int)Math.max(-2 * this.limit, Math.min(2 * this.limit, code));
+	}
+
+
+	/**
+	 * The largest quantized weight for a size.
+	 *
+	 * @param bits The size of each quantized weight, 8 or 16
+	 *
+	 * @return The largest code
+	 *
+	 * */
+	private static int limit(int bits)
+	{
+		return bits == 8 ? Byte.MAX_VALUE : Short.MAX_VALUE;
+	}
+
+
+	/**
+	 * Getter method for a quantized weight.
+	 *
+	 * @param position The node times the number of
+	 * columns plus the column
+	 *
+	 * @return The weight in quantization steps
+	 *
+	 * */
+	private int code(int position)
+	{
+		return this.codes8 != null ? this.codes8[position] : this.codes16[position];
+	}
+
+
+	/**
+	 * Determine the share of observations assigned to the
+	 * same node as by the exact weights.
+	 *
+	 * @param rows The observations in the units of
+	 * the training data, ideally not used for training
+	 *
+	 * @return The proportion of rows with the same nearest node
+	 *
+	 * */
+	public double agreement(double [][] rows)
+	{
+		if(!hasWeights())
+		{
+			throw new IllegalStateException("The exact weights are not available");
+		}
+		Codebook exact = new Codebook(getXDim(), getYDim(), weightArray(), centers(this), scales(this));
+		return agreement(exact, rows);
+	}
+
+
+	/**
+	 * Write the QuantizedCodebook in the binary model format.
+	 * After the header come the common step, the step of
+	 * each column in common steps and the quantized weights
+	 * of each node in turn, as bytes or shorts.
+	 *
+	 * @param out The stream to write to
+	 *
+	 * */
+	@Override
+	public void save(DataOutputStream out) throws IOException
+	{
+		writeHeader(out, this.bits == 8 ? TYPE_INT8 : TYPE_INT16);
+		out.writeDouble(this.step);
+		for(int k = 0; k < this.multiplier.length; k++)
+		{
+			out.writeByte(this.multiplier[k]);
+		}
+		int size = getNodes() * getColumns();
+		for(int i = 0; i < size; i++)
+		{
+			if(this.codes8 != null)
+			{
+				out.writeByte(this.codes8[i]);
+			}
+			else
+			{
+				out.writeShort(this.codes16[i]);
+			}
+		}
+		out.flush();
+	}
+
+
+	/**
+	 * Read the rest of a quantized model file.
+	 *
+	 * @param in The stream to read from
+	 * @param header A Codebook with the dimensions and scaling
+	 * @param type The type of codebook in the file
+	 *
+	 * @return The QuantizedCodebook in the stream
+	 *
+	 * */
+	static QuantizedCodebook read(DataInputStream in, Codebook header, byte type) throws IOException
+	{
+		int columns = header.getColumns();
+		double step = in.readDouble();
+		if(!(step > 0))
+		{
+			throw new IOException("Invalid quantization step");
+		}
+		int [] multiplier = new int[columns];
+		for(int k = 0; k < columns; k++)
+		{
+			multiplier[k] = in.readByte();
+			if(multiplier[k] < 1 || multiplier[k] > MAX_MULTIPLIER)
+			{
+				throw new IOException("Invalid quantization step");
+			}
+		}
+		int size = header.getNodes() * columns;
+		byte [] codes8 = type == TYPE_INT8 ? new byte[size] : null;
+		short [] codes16 = type == TYPE_INT16 ? new short[size] : null;
+		for(int i = 0; i < size; i++)
+		{
+			if(codes8 != null)
+			{
+				codes8[i] = in.readByte();
+			}
+			else
+			{
+				codes16[i] = in.readShort();
+			}
+		}
+		return new QuantizedCodebook(header, codes8 != null ? 8 : 16, codes8, codes16, step, multiplier);
+	}
+
+
+	private static double [] centers(Codebook codebook)
+	{
+		double [] center = new double[codebook.getColumns()];
+		for(int k = 0; k < center.length; k++)
+		{
+			center[k] = codebook.getCenter(k);
+		}
+		return center;
+	}
+
+
+	private static double [] scales(Codebook codebook)
+	{
+		double [] scale = new double[codebook.getColumns()];
+		for(int k = 0; k < scale.length; k++)
+		{
+			scale[k] = codebook.getScale(k);
+		}
+		return scale;
+	}
+
+
+	// Main method
+	public static void main(String [] args)
+	{
+		if(args.length < 2)
+		{
+			System.err.println("Usage: java QuantizedCodebook model.bin data.csv [8|16] [candidates] [quantized.bin]");
+			return;
+		}
+		try
+		{
+			Codebook exact = Codebook.load(new File(args[0]));
+			double [][] rows = Dataset.readCsv(args[1]).toArray();
+			int bits = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+			int candidates = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+			QuantizedCodebook quantized = exact.quantize(bits, candidates);
+			int [] nodes = new int[rows.length];
+			double [] distances = new double[rows.length];
+
+			long start = System.nanoTime();
+			exact.score(rows, 0, rows.length, nodes, distances);
+			long exactNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			quantized.score(rows, 0, rows.length, nodes, distances);
+			long quantizedNanos = System.nanoTime() - start;
+			System.out.printf("exact %.1f ms, int%d with %d candidates %.1f ms, agreement %.4f%n",
+				exactNanos / 1e6, bits, quantized.getCandidates(), quantizedNanos / 1e6, quantized.agreement(rows));
+			if(args.length > 4)
+			{
+				quantized.save(new File(args[4]));
+			}
+		}
+		catch(IOException ioe)
+		{
+			System.err.println("IOException: " + ioe.getMessage());
+		}
+		catch(IllegalArgumentException iae)
+		{
+			System.err.println("The data should have the same columns as the model, the bits should be 8 or 16"
+				+ " and the candidates a positive integer.");
+		}
+	}
+}
@@ -23,16 +23,61 @@
  * */
  
 import java.util.*;
-public class SOM extends Grid
+import java.util.concurrent.*;
+public class SOM
 {
+	// The data used for training
+	private Dataset data;
+	// Rows of the scaled data, set when training starts
+	private double [][] trainRows;
+	// The sparse data used for training, if any
+	private SparseDataset sparseData;
+	// The scaled sparse data, set when training starts
+	private SparseDataset trainSparse;
+	// For sparse data each node's weights are kept as
+	// nodeScale[j] * weights[j] during training so that an
+	// update only touches the nonzero columns of a row
+	private double [] nodeScale;
+	// Squared norm of each node's (scaled) weights for sparse data
+	private double [] nodeNormSq;
+	// Neighborhood function used for the updates
+	private Neighborhood kernel = Neighborhood.BUBBLE;
+	private double cutoff = Neighborhood.DEFAULT_CUTOFF;
+	// Order in which train() presents the rows
+	private Sampling sampling = Sampling.UNIFORM;
+	// Listener for progress reports during training
+	private TrainingListener listener;
+	// Set to stop training early
+	private volatile boolean cancelled;
+	// Times of the last progress report and snapshot
+	private long lastProgress;
+	private long lastSnapshot;
+	// Best matching unit counts since the last snapshot
+	private int [] recentHits;
+	// Cached U-matrix and component planes, cleared when the weights change
+	// and only kept while no training is running (guarded by this)
+	private double [] uMatrix;
+	private double [][] componentPlanes;
+	private boolean training;
+	// Pool shared by all maps for calculating the U-matrix and component planes
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+	// Iterations between checks for cancellation and reports
+	private static final int CHECK_INTERVAL = 1024;
+	// Minimum nanoseconds between progress reports and snapshots
+	private static final long PROGRESS_NANOS = 100000000L;
+	private static final long SNAPSHOT_NANOS = 500000000L;
+	// Rows copied at a time into the training buffer
+	private static final int CHUNK_ROWS = 4096;
 	// X dimension of the map
 	private int xDim;
 	// Y dimension of the map
 	private int yDim;
 	// Number of trianing rounds
 	private int epochs;
-	// Ordered pairs for all the points on the map
-	private int [][] pairArray;
+	// Distances between the nodes of the map
+	private Topology topology;
+	// The topology with cached distances, set when training starts
+	private Topology trainTopology;
 	// Weights fitted during training
 	private double [][] weights;
 	// Final node assigned to each observation in training
@@ -40,17 +85,78 @@ public class SOM extends Grid
 	// The disance from each data point to the final node
 	private double finalDistances[];
 	
+	/**
+	 * Constructor for array data.
+	 * The rows of the array are used by reference and
+	 * never modified; only the scaled view used for
+	 * training is a copy. The caller must not modify
+	 * the rows while the SOM is in use.
+	 * 
+	 * @param matrix The training data. It must satisfy
+	 * the same requirements as a Grid object.
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 * @param epochs The number of training rounds
+	 * 
+	 * */
 	public SOM(double[][] matrix, int xDim, int yDim, int epochs)
 	{
-		super(matrix);
+		this(Dataset.wrap(matrix), xDim, yDim, epochs);
+	}
+	
+	/**
+	 * Constructor for a Dataset.
+	 * The Dataset is used by reference and only
+	 * read during training; training uses its
+	 * shared scaled view, so several SOM objects can
+	 * be trained on the same Dataset concurrently.
+	 * 
+	 * @param data The training data
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 * @param epochs The number of training rounds
+	 * 
+	 * */
+	public SOM(Dataset data, int xDim, int yDim, int epochs)
+	{
+		// Only allow positive xDim and yDim
+		if(xDim <= 0 || yDim <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.data = data;
+		this.xDim = xDim;
+		this.yDim = yDim;
+		this.epochs = epochs;
+		this.topology = new Topology(xDim, yDim);
+	}
+	
+	/**
+	 * Constructor for a SparseDataset.
+	 * Distances and updates are calculated from the
+	 * nonzero values of each row, and the data are
+	 * scaled without centering so they stay sparse.
+	 * Parallel training is not available for
+	 * sparse data.
+	 * 
+	 * @param data The sparse training data
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 * @param epochs The number of training rounds
+	 * 
+	 * */
+	public SOM(SparseDataset data, int xDim, int yDim, int epochs)
+	{
 		// Only allow positive xDim and yDim
 		if(xDim <= 0 || yDim <= 0)
 		{
 			throw new IllegalArgumentException();
 		}
+		this.sparseData = data;
 		this.xDim = xDim;
 		this.yDim = yDim;
 		this.epochs = epochs;
+		this.topology = new Topology(xDim, yDim);
 	}
 
 	/**
@@ -76,6 +182,210 @@ public class SOM extends Grid
 	}
 	
 	
+	/**
+	 * Getter method for data.
+	 *
+	 * @return the data used for training, or null
+	 * if the SOM was created with a SparseDataset.
+	 *
+	 * */
+	public Dataset getData()
+	{
+		return this.data;
+	}
+	
+	
+	/**
+	 * Getter method for sparseData.
+	 *
+	 * @return the sparse data used for training, or null
+	 * if the SOM was created with dense data.
+	 *
+	 * */
+	public SparseDataset getSparseData()
+	{
+		return this.sparseData;
+	}
+	
+	
+	/**
+	 * Getter method for kernel.
+	 *
+	 * @return the neighborhood function used in training.
+	 *
+	 * */
+	public Neighborhood getKernel()
+	{
+		return this.kernel;
+	}
+	
+	
+	/**
+	 * Setter method for kernel.
+	 *
+	 * @param kernel the neighborhood function to use
+	 * in training. The default is Neighborhood.BUBBLE.
+	 *
+	 * */
+	public void setKernel(Neighborhood kernel)
+	{
+		if(kernel == null)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.kernel = kernel;
+	}
+	
+	
+	/**
+	 * Getter method for cutoff.
+	 *
+	 * @return the number of standard deviations at which
+	 * a truncated Gaussian neighborhood is cut off.
+	 *
+	 * */
+	public double getCutoff()
+	{
+		return this.cutoff;
+	}
+	
+	
+	/**
+	 * Setter method for cutoff.
+	 *
+	 * @param cutoff the number of standard deviations from
+	 * the best matching unit beyond which a truncated
+	 * Gaussian neighborhood gives no update. Smaller values
+	 * touch fewer nodes with each update. The default is 2,
+	 * the neighborhood radius. Other kernels ignore it.
+	 *
+	 * */
+	public void setCutoff(double cutoff)
+	{
+		if(!(cutoff > 0))
+		{
+			throw new IllegalArgumentException();
+		}
+		this.cutoff = cutoff;
+	}
+	
+	
+	/**
+	 * Getter method for topology.
+	 *
+	 * @return the shape of the map and the distances
+	 * between its nodes.
+	 *
+	 * */
+	public Topology getTopology()
+	{
+		return this.topology;
+	}
+	
+	
+	/**
+	 * Setter method for topology.
+	 *
+	 * @param topology the shape of the map and the distances
+	 * between its nodes, used in training, the U-matrix and
+	 * the topographic error. It must have the dimensions of
+	 * the map. The default is a rectangular map with
+	 * Manhattan distances.
+	 *
+	 * */
+	public void setTopology(Topology topology)
+	{
+		if(topology == null || topology.getXDim() != this.xDim || topology.getYDim() != this.yDim)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.topology = topology;
+	}
+	
+	
+	/**
+	 * Getter method for sampling.
+	 *
+	 * @return the order in which train() presents the rows.
+	 *
+	 * */
+	public Sampling getSampling()
+	{
+		return this.sampling;
+	}
+	
+	
+	/**
+	 * Setter method for sampling.
+	 *
+	 * @param sampling the order in which train() presents
+	 * the rows. The default is Sampling.UNIFORM. Parallel
+	 * training always draws the rows uniformly.
+	 *
+	 * */
+	public void setSampling(Sampling sampling)
+	{
+		if(sampling == null)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.sampling = sampling;
+	}
+	
+	
+	/**
+	 * Setter method for listener.
+	 *
+	 * @param listener the listener to receive progress
+	 * reports during training, or null for none.
+	 *
+	 * */
+	public void setListener(TrainingListener listener)
+	{
+		this.listener = listener;
+	}
+	
+	
+	/**
+	 * Stop training early.
+	 * This method may be called from any thread.
+	 * The training threads check for cancellation
+	 * regularly and then throw a CancellationException
+	 * from train(), leaving the map unlabeled. If training
+	 * has not started yet, it stops as soon as it starts.
+	 * A cancelled SOM cannot be trained again.
+	 *
+	 * */
+	public void cancel()
+	{
+		this.cancelled = true;
+	}
+	
+	
+	/**
+	 * Whether training has been cancelled.
+	 *
+	 * @return whether cancel() has been called.
+	 *
+	 * */
+	public boolean isCancelled()
+	{
+		return this.cancelled;
+	}
+	
+	
+	/**
+	 * Getter method for epochs.
+	 *
+	 * @return the number of training rounds.
+	 *
+	 * */
+	public int getEpochs()
+	{
+		return this.epochs;
+	}
+	
+	
 	/**
 	 * Getter method for finalDistances.
 	 * 
@@ -114,20 +424,15 @@ public class SOM extends Grid
 	 * Train the SOM to the data.
 	 * This method runs the training
 	 * algorithm to fit the self-organizing
-	 * maps to the training data
+	 * maps to the training data. The rows are
+	 * presented in the order set by setSampling().
 	 * 
 	 * */
 	public void train()
 	{
 		this.init();
 		// Number of rows in the training data
-		int dataRows = this.gridData.length;
-		// Number of columns in the training data
-		int dataColumns = this.gridData[0].length;
-		// Number of rows (same number of columns) in the weights map
-		int weightsRows = this.weights.length;
-		// Number of columns in the weights map
-		int weightsColumns = this.weights[0].length;
+		int dataRows = numRows();
 		// Number of rounds of training
 		int iterations = this.epochs * dataRows;
 		// Initial learning rate
@@ -138,79 +443,84 @@ public class SOM extends Grid
 		// Current row being processed
 		int currentObs;
 		// Nearest node to the current point
-		int nearest = 0;
-		// Smallest identified distance to a node
-		double nearestDistance;
-		
-		// Temporary variables for the current distance to a node
-		double dist;
-		double tmp;
+		int nearest;
+		// The current row, if the data are dense
+		double [] row = null;
 		
-		// "Unpack" the pair distances into a 1D array
-		double [] distPairs = new double[this.pairArray.length * this.pairArray.length];
-		int count = 0;
-		int currentX;
-		int currentY;
-		double xDist;
-		double yDist;
-		for(int i = 0; i < this.pairArray.length; i++)
-		{
-			// Set the reference point to the current row
-			currentX = this.pairArray[i][0];
-			currentY = this.pairArray[i][1];
-			for(int j = 0; j < this.pairArray.length; j++)
-			{
-				// Calculate the rectilinear distances from this point
-				// to the reference point
-				xDist = Math.abs(this.pairArray[j][0] - currentX);
-				yDist = Math.abs(this.pairArray[j][1] - currentY);
-				distPairs[count] = xDist + yDist;
-				count++;
+		// For the other samplings, the rows of the current epoch in
+		// order, the nearest node of each row when it was last seen
+		// and a contiguous copy of the next rows in the order
+		int [] order = null;
+		int [] lastNodes = null;
+		double [][] buffer = null;
+		Random random = new Random();
+		if(sampling != Sampling.UNIFORM)
+		{
+			lastNodes = new int[dataRows];
+			if(trainSparse == null)
+			{
+				// The rows are allocated one after another, which
+				// places them next to each other in the heap
+				buffer = new double[Math.min(CHUNK_ROWS, dataRows)][trainRows[0].length];
 			}
 		}
 		
 		// Set the neighborhood to capture approximately 2/3 of the nodes.
 		// This is approximately 1.75 * variance (See Chebychev's inequality)
 		// https://en.wikipedia.org/wiki/Chebyshev's_inequality
-		neighborhood = 1.75 * variance(distPairs);
+		neighborhood = 1.75 * topology.variance();
 
 		double stepLR = learningRate/iterations;
 		//double stepNH = neighborhood/iterations;
 
 		//double initLR = learningRate;
 		double initNH = neighborhood;
+		// The neighborhood schedule and kernel weights
+		KernelTable table = new KernelTable(kernel, cutoff, initNH, iterations, trainTopology);
 		
 		// Adapted from the C code for VR_onlineSOM in the R "class" package
 		for(int i = 0; i < iterations; i++)
 		{
-			// Choose a random observation for fitting
-			currentObs = (int)(Math.random() * dataRows);
-			// Find its nearest node
-			// Start with the maximum distance possible
-			nearestDistance = Double.MAX_VALUE;
-			nearest = 0;
-			for(int j = 0; j < weightsRows; j++)
-			{
-				// Reset the distance to zero for the next training point
-				dist = 0;
-				for(int k = 0; k < dataColumns; k++)
+			if(sampling == Sampling.UNIFORM)
+			{
+				// Choose a random observation for fitting
+				currentObs = (int)(Math.random() * dataRows);
+				row = trainSparse == null ? trainRows[currentObs] : null;
+			}
+			else
+			{
+				// Take the next observation in the order of the epoch
+				int position = i % dataRows;
+				if(position == 0)
 				{
-					// For the current random observation and the current column,
-					// find the difference
-					tmp = gridData[currentObs][k] - weights[j][k];
-					// dist^2 is the square of the sums of
-					// all the individual components, and
-					// minimizing distance^2 leads to the same
-					// node as minimizing distance.
-					dist += (tmp * tmp);
+					order = sampling.order(dataRows, i == 0 ? null : lastNodes, weights.length, random);
 				}
-				// New closest node found
-				if(dist < nearestDistance)
+				if(buffer != null && position % CHUNK_ROWS == 0)
 				{
-					// Update the nearest node and distance
-					nearest = j;
-					nearestDistance = dist;
+					for(int b = 0; b < buffer.length && position + b < dataRows; b++)
+					{
+						double [] source = trainRows[order[position + b]];
+						System.arraycopy(source, 0, buffer[b], 0, source.length);
+					}
 				}
+				currentObs = order[position];
+				row = buffer != null ? buffer[position % CHUNK_ROWS] : null;
+			}
+			// Find its nearest node, starting from its
+			// nearest node when it was last seen
+			nearest = trainSparse != null ? findSparseBMU(currentObs)
+				: findBMU(row, lastNodes != null ? lastNodes[currentObs] : 0);
+			if(lastNodes != null)
+			{
+				lastNodes[currentObs] = nearest;
+			}
+			if(recentHits != null)
+			{
+				recentHits[nearest]++;
+			}
+			if(i % CHECK_INTERVAL == 0)
+			{
+				checkpoint(i, iterations, true);
 			}
 			
 			// Update learning rate and neighborhood distances
@@ -225,9 +535,9 @@ public class SOM extends Grid
 			learningRate -= stepLR;
 			//neighborhood -= stepNH;
 
-			double exp = Math.exp(-3d*i/iterations);
+			// The exponential decay is looked up from the table
 			//learningRate = initLR*exp;
-			neighborhood = initNH*exp;
+			neighborhood = table.select(i);
 
 			// Rounding errors can lead to negative numbers towards the end.
 			// Stop then, else the algorithm acts wrongly, e.g., the BMU's weight will be moved away from the input vector.
@@ -238,114 +548,1059 @@ public class SOM extends Grid
 
 			// Apply the distortion to the map for nodes within
 			// the neighborhood
-			for(int l = 0; l < weightsRows; l++)
+			update(currentObs, row, nearest, learningRate, table);
+		}
+		if(trainSparse != null)
+		{
+			// Fold the node scales back into the weights
+			for(int j = 0; j < this.weights.length; j++)
 			{
-				// Apply if the distance to the other node is within the neighborhood
-				if(distPairs[l + weightsRows * nearest] <= neighborhood)
-				{
-					// Apply to all columns in this row
-					for(int m = 0; m < dataColumns; m++)
-					{
-						tmp = gridData[currentObs][m] - weights[l][m];
-						weights[l][m] += (tmp * learningRate);
-					}
-				}
+				rescaleNode(j);
 			}
 		}
 
+		checkpoint(iterations, iterations, true);
+
 		// Finally label the observations with the nearest node
 		// to complete the map training
-		finalNodes = new int[dataRows];
-		finalDistances = new double[dataRows];
-
-		double minDistance;
-
-		// Adapted from the C code for mapKohonen in the R "kohonen" package
-		// Now calculate the weights/data to map distance
-		double [][] distanceMatrix = new double [dataRows][weightsRows];
-		// Loop over all data points
-		for(int i = 0; i < dataRows; i++)
+		label(0, dataRows);
+		finish();
+	}
+	
+	
+	/**
+	 * Train the SOM to the data with several threads.
+	 * This method runs the same online training
+	 * algorithm as train(), but the iterations are
+	 * divided between a number of threads that
+	 * sample rows, find their nearest nodes and update
+	 * the shared weights without any locking
+	 * ("Hogwild" style). Writes from different threads
+	 * may occasionally overwrite one another; since each
+	 * update is a small step towards an observation this
+	 * has little effect on the fitted map, particularly
+	 * late in training when the neighborhood only covers
+	 * a few nodes and conflicts become rare. Because of
+	 * these relaxed writes the result is not reproducible
+	 * between runs even with the same starting weights.
+	 * 
+	 * @param threads The number of training threads. Values
+	 * of one or less, or sparse data, fall back to the
+	 * sequential train()
+	 * 
+	 * */
+	public void train(int threads)
+	{
+		// The node scales used for sparse data cannot be
+		// shared between threads without locking
+		if(threads <= 1 || this.sparseData != null)
+		{
+			train();
+			return;
+		}
+		this.init();
+		final int dataRows = this.trainRows.length;
+		final int iterations = this.epochs * dataRows;
+		final double initLR = 0.5;
+		final double stepLR = initLR / iterations;
+		final double initNH = 1.75 * topology.variance();
+		final int nThreads = threads;
+		
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		try
 		{
-			minDistance = Double.MAX_VALUE;
-			// Loop over all the map nodes
-			for(int j = 0; j < weightsRows; j++)
+			List <Future<?>> tasks = new ArrayList <>();
+			for(int t = 0; t < nThreads; t++)
 			{
-				distanceMatrix[i][j] = 0;
-				// Loop over all the variable
-				for(int k = 0; k < weightsColumns && distanceMatrix[i][j] < minDistance; k++)
+				final int offset = t;
+				tasks.add(pool.submit(new Runnable()
 				{
-					tmp = gridData[i][k] - weights[j][k];
-					distanceMatrix[i][j] += (tmp * tmp);
-				}
-				if(distanceMatrix[i][j] < minDistance)
+					public void run()
+					{
+						Random random = ThreadLocalRandom.current();
+						// Every thread has its own table for the current phase
+						KernelTable table = new KernelTable(kernel, cutoff, initNH, iterations, trainTopology);
+						// Each thread takes every nThreads-th iteration so
+						// that all threads follow the same global schedule
+						for(int i = offset; i < iterations; i += nThreads)
+						{
+							double learningRate = initLR - (i + 1) * stepLR;
+							double neighborhood = table.select(i);
+							if (learningRate <= 0 || neighborhood <= 0)
+							{
+								break;
+							}
+							int currentObs = random.nextInt(dataRows);
+							int nearest = findBMU(trainRows[currentObs]);
+							// The first thread reports for all of them
+							if(offset == 0 && recentHits != null)
+							{
+								recentHits[nearest]++;
+							}
+							if(i % CHECK_INTERVAL < nThreads)
+							{
+								checkpoint(i, iterations, offset == 0);
+							}
+							update(currentObs, trainRows[currentObs], nearest, learningRate, table);
+						}
+					}
+				}));
+			}
+			// Joining the tasks also publishes the final weights to this thread
+			awaitAll(tasks);
+			checkpoint(iterations, iterations, true);
+			
+			// Label the observations in contiguous blocks of rows
+			finalNodes = new int[dataRows];
+			finalDistances = new double[dataRows];
+			tasks.clear();
+			int blockSize = (dataRows + nThreads - 1) / nThreads;
+			for(int start = 0; start < dataRows; start += blockSize)
+			{
+				final int from = start;
+				final int to = Math.min(dataRows, start + blockSize);
+				tasks.add(pool.submit(new Runnable()
 				{
-					minDistance = distanceMatrix[i][j];
-					finalNodes[i] = j;
-				}
+					public void run()
+					{
+						label(from, to);
+					}
+				}));
 			}
-			finalDistances[i] = minDistance;
+			awaitAll(tasks);
+		}
+		finally
+		{
+			pool.shutdownNow();
 		}
-		//for(int i = 0; i < finalNodes.length; i++)
-		//{
-			//System.out.println("node: " + finalNodes[i] + "\t distance: " + finalDistances[i]);
-		//}
+		finish();
 	}
 	
 	
 	/**
-	 * Initialize the SOM object for training
-	 * This method prepares the SOM for
-	 * training by initializing the random
-	 * weights with a bootstrap sample from
-	 * the training data.
+	 * Calculate the quantization error of the map.
+	 * This is the mean Euclidean distance from each
+	 * observation to its assigned node and is
+	 * the usual measure for the quality of a fit.
+	 * 
+	 * @return The mean distance to the assigned nodes
 	 * 
 	 * */
-	private void init()
+	public double quantizationError()
 	{
-		// Scale the Grid
-		this.scaleGrid();
-		
-		// Prepare the array for 
-		// calculating pair distances
-		pairArray = new int[this.xDim * this.yDim][2];
-		int count = 0;
-		for(int i = 0; i < this.xDim; i++)
+		if(this.finalDistances == null)
 		{
-			for(int j = 0; j < this.yDim; j++)
-			{
-				this.pairArray[count][0] = i;
-				this.pairArray[count][1] = j;
-				count++;
-			}
+			throw new IllegalStateException("The SOM has not been trained");
 		}
-		
-		// Useful variables
-		int pairRows = this.pairArray.length;
-		int dataRows = this.gridData.length;
-		
-		
-		// Sample from the data to determine
-		// which observations to use
-		// for initial weights
-		Set <Integer> samplePoints = new HashSet <>();
-		while(samplePoints.size() < pairRows)
+		double result = 0;
+		for(int i = 0; i < this.finalDistances.length; i++)
 		{
-			samplePoints.add((int)(Math.random() * dataRows));
+			// The stored distances are squared
+			result += Math.sqrt(this.finalDistances[i]);
 		}
-		Integer [] sampleIndex = samplePoints.toArray(new Integer[0]);
-		
-		// Use the selected rows to build the starting weights
-		weights = new double[pairRows][gridData[0].length];
-		int weightCount = 0;
-		// Select the rows from sampleIndex
-		for(Integer i : sampleIndex)
+		return result / this.finalDistances.length;
+	}
+	
+	
+	/**
+	 * Calculate the topographic error of the map.
+	 * This is the proportion of observations whose
+	 * nearest and second nearest nodes are not
+	 * adjacent on the map (including diagonally
+	 * on a rectangular map)
+	 * and measures how well the map preserves
+	 * the topology of the data.
+	 * 
+	 * @return The proportion of observations with
+	 * non-adjacent first and second nodes
+	 * 
+	 * */
+	public double topographicError()
+	{
+		if(this.finalNodes == null)
 		{
-			// Select all the columns in the row
-			for(int j = 0; j < gridData[0].length; j++)
+			throw new IllegalStateException("The SOM has not been trained");
+		}
+		// A map with a single node has no topology to preserve
+		if(this.weights.length < 2)
+		{
+			return 0;
+		}
+		int errors = 0;
+		int dataRows = numRows();
+		double dist;
+		double tmp;
+		for(int i = 0; i < dataRows; i++)
+		{
+			double [] row = this.trainSparse != null ? null : this.trainRows[i];
+			int first = -1;
+			int second = -1;
+			double firstDistance = Double.MAX_VALUE;
+			double secondDistance = Double.MAX_VALUE;
+			for(int j = 0; j < this.weights.length; j++)
+			{
+				if(row == null)
+				{
+					dist = sparseDistance(i, j);
+				}
+				else
+				{
+					dist = 0;
+					for(int k = 0; k < row.length && dist < secondDistance; k++)
+					{
+						tmp = row[k] - this.weights[j][k];
+						dist += (tmp * tmp);
+					}
+				}
+				if(dist < firstDistance)
+				{
+					second = first;
+					secondDistance = firstDistance;
+					first = j;
+					firstDistance = dist;
+				}
+				else if(dist < secondDistance)
+				{
+					second = j;
+					secondDistance = dist;
+				}
+			}
+			if(!this.topology.adjacent(first, second))
 			{
-				weights[weightCount][j] = gridData[i][j];
+				errors++;
 			}
-			weightCount++;
+		}
+		return (double)errors / dataRows;
+	}
+	
+	
+	/**
+	 * Calculate the unified distance matrix (U-matrix).
+	 * For every node this is the mean distance from its
+	 * weights to the weights of the adjacent nodes on the
+	 * map (including diagonally on a rectangular map). Large values mark the
+	 * borders between clusters. The result is calculated
+	 * in parallel the first time it is requested and cached
+	 * until the map is trained again. While training is
+	 * running it is calculated from the current weights on
+	 * every call and not cached.
+	 * 
+	 * @return The U-matrix value for each node
+	 * 
+	 * */
+	public synchronized double [] getUMatrix()
+	{
+		if(this.weights == null)
+		{
+			throw new IllegalStateException("The SOM has not been trained");
+		}
+		double [] matrix = this.uMatrix;
+		if(matrix == null)
+		{
+			final double [] result = new double[this.weights.length];
+			POOL.invoke(new RangeTask(0, this.weights.length)
+			{
+				void compute(int from, int to)
+				{
+					int [] adjacent = new int[8];
+					for(int j = from; j < to; j++)
+					{
+						double sum = 0;
+						int count = topology.adjacent(j, adjacent);
+						for(int n = 0; n < count; n++)
+						{
+							sum += Math.sqrt(squaredDistance(weights[j], weights[adjacent[n]]));
+						}
+						result[j] = count > 0 ? sum / count : 0;
+					}
+				}
+			});
+			matrix = result;
+			if(!this.training)
+			{
+				this.uMatrix = result;
+			}
+		}
+		return matrix.clone();
+	}
+	
+	
+	/**
+	 * Calculate a component plane of the map.
+	 * This is the weight of every node for one
+	 * variable, converted back to the units of the
+	 * original data. All the component planes are
+	 * calculated in parallel the first time one is
+	 * requested and cached until the map is trained again.
+	 * While training is running they are calculated from
+	 * the current weights on every call and not cached.
+	 * 
+	 * @param column The variable
+	 * 
+	 * @return The weight of each node for the variable
+	 * 
+	 * */
+	public synchronized double [] getComponentPlane(int column)
+	{
+		if(this.weights == null)
+		{
+			throw new IllegalStateException("The SOM has not been trained");
+		}
+		final int columns = this.weights[0].length;
+		if(column < 0 || column >= columns)
+		{
+			throw new IndexOutOfBoundsException("Column " + column);
+		}
+		double [][] result = this.componentPlanes;
+		if(result == null)
+		{
+			final double [][] planes = new double[columns][this.weights.length];
+			double [][] scaling = scaling();
+			final double [] center = scaling[0];
+			final double [] scale = scaling[1];
+			POOL.invoke(new RangeTask(0, this.weights.length)
+			{
+				void compute(int from, int to)
+				{
+					for(int j = from; j < to; j++)
+					{
+						for(int k = 0; k < columns; k++)
+						{
+							planes[k][j] = weights[j][k] * scale[k] + center[k];
+						}
+					}
+				}
+			});
+			result = planes;
+			if(!this.training)
+			{
+				this.componentPlanes = planes;
+			}
+		}
+		return result[column].clone();
+	}
+	
+	
+	/**
+	 * Create a Codebook from the trained map.
+	 * The Codebook holds a copy of the weights and
+	 * the scaling of the training data, so it can
+	 * assign new observations to nodes and be saved
+	 * to a model file.
+	 * 
+	 * @return The Codebook of the map
+	 * 
+	 * */
+	public Codebook getCodebook()
+	{
+		if(this.weights == null)
+		{
+			throw new IllegalStateException("The SOM has not been trained");
+		}
+		double [][] scaling = scaling();
+		return new Codebook(this.xDim, this.yDim, this.weights, scaling[0], scaling[1]);
+	}
+	
+	
+	/**
+	 * The scaling of the training data.
+	 * 
+	 * @return The center and then the scale of each column
+	 * 
+	 * */
+	private double [][] scaling()
+	{
+		int columns = this.weights[0].length;
+		double [] center = new double[columns];
+		double [] scale = new double[columns];
+		for(int k = 0; k < columns; k++)
+		{
+			if(this.sparseData != null)
+			{
+				scale[k] = this.trainSparse.getScale(k);
+			}
+			else
+			{
+				Dataset scaled = this.data.scaled();
+				center[k] = scaled.getCenter(k);
+				scale[k] = scaled.getScale(k);
+			}
+		}
+		return new double[][]{center, scale};
+	}
+	
+	
+	/**
+	 * Calculate the squared distance between two vectors.
+	 * 
+	 * @param a The first vector
+	 * @param b The second vector
+	 * 
+	 * @return The squared Euclidean distance
+	 * 
+	 * */
+	private static double squaredDistance(double [] a, double [] b)
+	{
+		double dist = 0;
+		double tmp;
+		for(int k = 0; k < a.length; k++)
+		{
+			tmp = a[k] - b[k];
+			dist += (tmp * tmp);
+		}
+		return dist;
+	}
+	
+	
+	/**
+	 * Find the best matching unit for a row.
+	 * The squared Euclidean distance is used
+	 * since minimizing it leads to the same node
+	 * as minimizing the distance.
+	 * 
+	 * @param row The observation to match
+	 * 
+	 * @return The index of the nearest node
+	 * 
+	 * */
+	private int findBMU(double [] row)
+	{
+		return findBMU(row, 0);
+	}
+	
+	
+	/**
+	 * Find the best matching unit for a row,
+	 * starting from a node that is likely to be
+	 * close. The closer the starting node, the
+	 * sooner the distances to the other nodes can
+	 * be abandoned. Ties between nodes are won by
+	 * the starting node.
+	 * 
+	 * @param row The observation to match
+	 * @param start The node to start from
+	 * 
+	 * @return The index of the nearest node
+	 * 
+	 * */
+	private int findBMU(double [] row, int start)
+	{
+		int nearest = start;
+		double nearestDistance = squaredDistance(row, weights[start]);
+		double dist;
+		double tmp;
+		for(int j = 0; j < weights.length; j++)
+		{
+			if(j == start)
+			{
+				continue;
+			}
+			double [] node = weights[j];
+			dist = 0;
+			// Stop early once this node cannot be the nearest
+			for(int k = 0; k < row.length && dist < nearestDistance; k++)
+			{
+				tmp = row[k] - node[k];
+				dist += (tmp * tmp);
+			}
+			// New closest node found
+			if(dist < nearestDistance)
+			{
+				nearest = j;
+				nearestDistance = dist;
+			}
+		}
+		return nearest;
+	}
+	
+	
+	/**
+	 * Pull the nodes in the neighborhood of the
+	 * best matching unit towards an observation.
+	 * Only the nodes within the reach of the kernel
+	 * are visited, so a truncated kernel bounds
+	 * the work of each update.
+	 * 
+	 * @param currentObs The row being fit
+	 * @param row The row being fit if the data are dense
+	 * @param nearest The best matching unit
+	 * @param learningRate The current learning rate
+	 * @param table The kernel weights for the current phase
+	 * 
+	 * */
+	private void update(int currentObs, double [] row, int nearest, double learningRate, KernelTable table)
+	{
+		int [] nodes = table.nodes();
+		int [] distances = table.distances();
+		int count = trainTopology.neighbors(nearest, table.reach(), nodes, distances);
+		for(int n = 0; n < count; n++)
+		{
+			double rate = learningRate * table.get(distances[n]);
+			// Skip nodes outside the neighborhood
+			if(rate == 0)
+			{
+				continue;
+			}
+			if(trainSparse != null)
+			{
+				pullSparse(currentObs, nodes[n], rate);
+			}
+			else
+			{
+				pull(row, weights[nodes[n]], rate);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Pull a node towards an observation.
+	 * 
+	 * @param row The observation being fit
+	 * @param node The weights of the node
+	 * @param rate The proportion of the distance to move
+	 * 
+	 * */
+	private static void pull(double [] row, double [] node, double rate)
+	{
+		double tmp;
+		// Apply to all columns in this row
+		for(int m = 0; m < row.length; m++)
+		{
+			tmp = row[m] - node[m];
+			node[m] += (tmp * rate);
+		}
+	}
+	
+	
+	/**
+	 * Label a range of observations with their
+	 * nearest node after training. The first call
+	 * allocates the result arrays.
+	 * 
+	 * @param from The first row to label
+	 * @param to One past the last row to label
+	 * 
+	 * */
+	private void label(int from, int to)
+	{
+		// Adapted from the C code for mapKohonen in the R "kohonen" package
+		int dataRows = numRows();
+		if(finalNodes == null || finalNodes.length != dataRows)
+		{
+			finalNodes = new int[dataRows];
+			finalDistances = new double[dataRows];
+		}
+		double tmp;
+		for(int i = from; i < to && trainSparse != null; i++)
+		{
+			finalNodes[i] = findSparseBMU(i);
+			// Rounding can leave tiny negative distances
+			finalDistances[i] = Math.max(0, sparseDistance(i, finalNodes[i]) + trainSparse.rowNormSq(i));
+		}
+		for(int i = from; i < to && trainSparse == null; i++)
+		{
+			int nearest = findBMU(trainRows[i]);
+			double dist = 0;
+			for(int k = 0; k < trainRows[i].length; k++)
+			{
+				tmp = trainRows[i][k] - weights[nearest][k];
+				dist += (tmp * tmp);
+			}
+			finalNodes[i] = nearest;
+			finalDistances[i] = dist;
+		}
+	}
+	
+	
+	/**
+	 * The number of rows in the training data.
+	 * 
+	 * @return The number of rows
+	 * 
+	 * */
+	private int numRows()
+	{
+		return this.trainSparse != null ? this.trainSparse.getRows() : this.trainRows.length;
+	}
+	
+	
+	/**
+	 * Calculate the squared distance from a sparse
+	 * row to a node, less the squared norm of the row.
+	 * With ||w - x||^2 = ||w||^2 - 2 x.w + ||x||^2, only
+	 * the dot product needs the data, and it only needs
+	 * the nonzero values of the row. The squared norm of
+	 * the row is the same for every node, so it is left out.
+	 * 
+	 * @param row The position of the row in the sparse data
+	 * @param node The node
+	 * 
+	 * @return The squared distance less the squared
+	 * norm of the row
+	 * 
+	 * */
+	private double sparseDistance(int row, int node)
+	{
+		int [] idx = trainSparse.indices();
+		double [] val = trainSparse.values();
+		double [] weight = weights[node];
+		double dot = 0;
+		for(int p = trainSparse.rowStart(row); p < trainSparse.rowEnd(row); p++)
+		{
+			dot += val[p] * weight[idx[p]];
+		}
+		return nodeNormSq[node] - 2 * nodeScale[node] * dot;
+	}
+	
+	
+	/**
+	 * Find the best matching unit for a sparse row.
+	 * 
+	 * @param row The position of the row in the sparse data
+	 * 
+	 * @return The index of the nearest node
+	 * 
+	 * */
+	private int findSparseBMU(int row)
+	{
+		int nearest = 0;
+		double nearestDistance = Double.MAX_VALUE;
+		double dist;
+		for(int j = 0; j < weights.length; j++)
+		{
+			dist = sparseDistance(row, j);
+			if(dist < nearestDistance)
+			{
+				nearest = j;
+				nearestDistance = dist;
+			}
+		}
+		return nearest;
+	}
+	
+	
+	/**
+	 * Pull a node towards a sparse row. With w = s * v,
+	 * w + a(x - w) = (1 - a)s * (v + a / ((1 - a)s) * x)
+	 * so the update shrinks the node's scale and only
+	 * adds to the nonzero columns of the row. The squared
+	 * norm of the node is updated to match.
+	 * 
+	 * @param row The position of the row in the sparse data
+	 * @param l The node
+	 * @param rate The proportion of the distance to move
+	 * 
+	 * */
+	private void pullSparse(int row, int l, double rate)
+	{
+		int [] idx = trainSparse.indices();
+		double [] val = trainSparse.values();
+		int start = trainSparse.rowStart(row);
+		int end = trainSparse.rowEnd(row);
+		double keep = 1 - rate;
+		double [] node = weights[l];
+		double dot = 0;
+		for(int p = start; p < end; p++)
+		{
+			dot += val[p] * node[idx[p]];
+		}
+		double xw = nodeScale[l] * dot;
+		nodeNormSq[l] = keep * keep * nodeNormSq[l] + 2 * rate * keep * xw
+			+ rate * rate * trainSparse.rowNormSq(row);
+		nodeScale[l] *= keep;
+		double step = rate / nodeScale[l];
+		for(int p = start; p < end; p++)
+		{
+			node[idx[p]] += step * val[p];
+		}
+		// Fold the scale into the weights before it underflows
+		if(nodeScale[l] < 1e-100)
+		{
+			rescaleNode(l);
+		}
+	}
+	
+	
+	/**
+	 * Fold a node's scale into its weights and
+	 * recalculate its squared norm exactly.
+	 * 
+	 * @param node The node
+	 * 
+	 * */
+	private void rescaleNode(int node)
+	{
+		double [] weight = weights[node];
+		double sum = 0;
+		for(int k = 0; k < weight.length; k++)
+		{
+			weight[k] *= nodeScale[node];
+			sum += weight[k] * weight[k];
+		}
+		nodeScale[node] = 1;
+		nodeNormSq[node] = sum;
+	}
+	
+	
+	/**
+	 * Check for cancellation and send any
+	 * progress reports that are due.
+	 * 
+	 * @param iteration The number of iterations completed
+	 * @param iterations The total number of iterations
+	 * @param report Whether this thread sends the reports
+	 * 
+	 * */
+	private void checkpoint(long iteration, long iterations, boolean report)
+	{
+		if(this.cancelled)
+		{
+			throw new CancellationException("Training was cancelled");
+		}
+		if(!report || this.listener == null)
+		{
+			return;
+		}
+		long now = System.nanoTime();
+		boolean finished = iteration >= iterations;
+		if(finished || now - this.lastProgress >= PROGRESS_NANOS)
+		{
+			this.lastProgress = now;
+			this.listener.progress(iteration, iterations);
+		}
+		if(finished || now - this.lastSnapshot >= SNAPSHOT_NANOS)
+		{
+			this.lastSnapshot = now;
+			double [][] copy = new double[this.weights.length][];
+			for(int j = 0; j < this.weights.length; j++)
+			{
+				copy[j] = this.weights[j].clone();
+				// Sparse nodes are kept as a scale times the weights
+				if(this.nodeScale != null && this.trainSparse != null)
+				{
+					for(int k = 0; k < copy[j].length; k++)
+					{
+						copy[j][k] *= this.nodeScale[j];
+					}
+				}
+			}
+			int [] hits = new int[this.weights.length];
+			// The listener may have been set after training started
+			if(this.recentHits != null)
+			{
+				hits = this.recentHits.clone();
+				Arrays.fill(this.recentHits, 0);
+			}
+			this.listener.snapshot(copy, hits);
+		}
+	}
+	
+	
+	/**
+	 * Wait for a list of tasks to finish,
+	 * passing on any failure from the tasks.
+	 * 
+	 * @param tasks The submitted tasks
+	 * 
+	 * */
+	private static void awaitAll(List <Future<?>> tasks)
+	{
+		try
+		{
+			for(Future<?> task : tasks)
+			{
+				task.get();
+			}
+		}
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Training was interrupted", ie);
+		}
+		catch(ExecutionException ee)
+		{
+			if(ee.getCause() instanceof CancellationException)
+			{
+				throw (CancellationException)ee.getCause();
+			}
+			throw new IllegalStateException("Training failed", ee.getCause());
+		}
+	}
+	
+	
+	/**
+	 * Mark the end of training, so the U-matrix and
+	 * component planes are calculated again from the
+	 * final weights and cached.
+	 * 
+	 * */
+	private synchronized void finish()
+	{
+		this.training = false;
+		this.uMatrix = null;
+		this.componentPlanes = null;
+	}
+	
+	
+	/**
+	 * Initialize the SOM object for training
+	 * This method prepares the SOM for
+	 * training by initializing the random
+	 * weights with a bootstrap sample from
+	 * the training data.
+	 * 
+	 * */
+	private void init()
+	{
+		// The weights are about to change
+		synchronized(this)
+		{
+			this.training = true;
+			this.uMatrix = null;
+			this.componentPlanes = null;
+		}
+
+		// Start the progress reports
+		this.lastProgress = System.nanoTime();
+		this.lastSnapshot = this.lastProgress;
+		this.recentHits = this.listener != null ? new int[this.xDim * this.yDim] : null;
+		
+		// Use the shared scaled view of the data
+		if(this.sparseData != null)
+		{
+			this.trainSparse = this.sparseData.scaled();
+		}
+		else
+		{
+			this.trainRows = this.data.scaled().rowArrays();
+		}
+		
+		// Look the distances between the nodes up in a table
+		this.trainTopology = this.topology.cached();
+		
+		// Useful variables
+		int pairRows = this.xDim * this.yDim;
+		int dataRows = numRows();
+		int dataColumns = this.trainSparse != null ? this.trainSparse.getColumns() : this.trainRows[0].length;
+		
+		
+		// Sample from the data to determine
+		// which observations to use
+		// for initial weights
+		Set <Integer> samplePoints = new HashSet <>();
+		while(samplePoints.size() < pairRows)
+		{
+			samplePoints.add((int)(Math.random() * dataRows));
+		}
+		Integer [] sampleIndex = samplePoints.toArray(new Integer[0]);
+		
+		// Use the selected rows to build the starting weights
+		weights = new double[pairRows][dataColumns];
+		int weightCount = 0;
+		// Select the rows from sampleIndex
+		for(Integer i : sampleIndex)
+		{
+			if(this.trainSparse != null)
+			{
+				weights[weightCount] = this.trainSparse.denseRow(i);
+				weightCount++;
+				continue;
+			}
+			// Select all the columns in the row
+			for(int j = 0; j < dataColumns; j++)
+			{
+				weights[weightCount][j] = trainRows[i][j];
+			}
+			weightCount++;
+		}
+		
+		// Start the node scales and norms for sparse data
+		if(this.trainSparse != null)
+		{
+			nodeScale = new double[pairRows];
+			nodeNormSq = new double[pairRows];
+			for(int j = 0; j < pairRows; j++)
+			{
+				nodeScale[j] = 1;
+				rescaleNode(j);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Lookup table for the neighborhood schedule.
+	 * The training iterations are divided into phases;
+	 * the exponentially decaying radius is precomputed for
+	 * each phase, and the kernel weight for every distance
+	 * on the map is computed once when a phase starts, so
+	 * no transcendental functions are evaluated for each
+	 * update. It also holds the space for the nodes within
+	 * reach of each update. A table is not thread-safe.
+	 * 
+	 * */
+	private static final class KernelTable
+	{
+		// Number of phases the training is divided into
+		private static final int PHASES = 1000;
+		private final Neighborhood kernel;
+		private final double cutoff;
+		private final long iterations;
+		private final int phases;
+		// Radius at the start of each phase
+		private final double [] radius;
+		// Kernel weight for each distance in the current phase
+		private final double [] weight;
+		private int phase = -1;
+		private int reach;
+		// The nodes within reach of an update and their distances
+		private final int [] nodes;
+		private final int [] distances;
+		
+		KernelTable(Neighborhood kernel, double cutoff, double initNH, long iterations, Topology topology)
+		{
+			this.kernel = kernel;
+			this.cutoff = cutoff;
+			this.iterations = Math.max(1, iterations);
+			this.phases = (int)Math.min(PHASES, this.iterations);
+			this.radius = new double[this.phases];
+			for(int p = 0; p < this.phases; p++)
+			{
+				// The first iteration of the phase
+				long first = (p * this.iterations + this.phases - 1) / this.phases;
+				this.radius[p] = initNH * Math.exp(-3d * first / this.iterations);
+			}
+			this.weight = new double[topology.maxDistance() + 1];
+			this.nodes = new int[topology.size()];
+			this.distances = new int[topology.size()];
+		}
+		
+		/**
+		 * Move to the phase of an iteration.
+		 * 
+		 * @param i The iteration
+		 * 
+		 * @return The neighborhood radius for the iteration
+		 * 
+		 * */
+		double select(long i)
+		{
+			int p = (int)(i * this.phases / this.iterations);
+			if(p != this.phase)
+			{
+				this.phase = p;
+				double r = this.radius[p];
+				int maxDistance = this.weight.length - 1;
+				for(int d = 0; d <= maxDistance; d++)
+				{
+					this.weight[d] = this.kernel.weight(d, r, this.cutoff);
+				}
+				this.reach = (int)Math.min(maxDistance, Math.floor(this.kernel.reach(r, this.cutoff)));
+			}
+			return this.radius[p];
+		}
+		
+		/**
+		 * The kernel weight for a distance on the map.
+		 * 
+		 * @param distance The distance from the best matching unit
+		 * 
+		 * @return The kernel weight
+		 * 
+		 * */
+		double get(int distance)
+		{
+			return this.weight[distance];
+		}
+		
+		/**
+		 * The largest distance from the best matching unit
+		 * that can receive an update in the current phase.
+		 * 
+		 * @return The reach of the kernel
+		 * 
+		 * */
+		int reach()
+		{
+			return this.reach;
+		}
+		
+		/**
+		 * Space for the nodes within reach of an update.
+		 * 
+		 * @return An array with room for every node
+		 * 
+		 * */
+		int [] nodes()
+		{
+			return this.nodes;
+		}
+		
+		/**
+		 * Space for the distances of the nodes within reach.
+		 * 
+		 * @return An array with room for every node
+		 * 
+		 * */
+		int [] distances()
+		{
+			return this.distances;
+		}
+	}
+	
+	
+	/**
+	 * Task that splits a range of nodes in half
+	 * until the pieces are small enough to process
+	 * directly, for use with a ForkJoinPool.
+	 * 
+	 * */
+	private abstract static class RangeTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		// Number of nodes small enough to process directly
+		private static final int THRESHOLD = 256;
+		private final int from;
+		private final int to;
+		
+		RangeTask(int from, int to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+		
+		/**
+		 * Process a range of nodes directly.
+		 * 
+		 * @param from The first node
+		 * @param to One past the last node
+		 * 
+		 * */
+		abstract void compute(int from, int to);
+		
+		protected void compute()
+		{
+			if(to - from <= THRESHOLD)
+			{
+				compute(from, to);
+				return;
+			}
+			final int middle = (from + to) >>> 1;
+			final RangeTask parent = this;
+			invokeAll(new RangeTask(from, middle)
+			{
+				void compute(int a, int b)
+				{
+					parent.compute(a, b);
+				}
+			}, new RangeTask(middle, to)
+			{
+				void compute(int a, int b)
+				{
+					parent.compute(a, b);
+				}
+			});
 		}
 	}
 }
@@ -0,0 +1,178 @@
+//Sampling.java
+/**
+ * Ways of choosing the rows presented during training.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * Online training presents one row at a time. Drawing
+ * every row independently from the whole dataset is the
+ * classic schedule, but for large datasets almost every
+ * draw misses the cache. The other schedules present
+ * every row once per epoch in an order that keeps nearby
+ * rows, or rows near the same node, together, and
+ * SOM.train() copies them in that order into a small
+ * contiguous buffer.
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.util.*;
+public enum Sampling
+{
+	/**
+	 * Every row is drawn independently and uniformly
+	 * from the whole dataset, so some rows are seen
+	 * several times in an epoch and others not at all.
+	 * This is the default.
+	 *
+	 * */
+	UNIFORM
+	{
+		int [] order(int rows, int [] lastNodes, int nodes, Random random)
+		{
+			return null;
+		}
+	},
+
+	/**
+	 * The rows are divided into blocks of consecutive
+	 * rows; the blocks are visited in random order and the
+	 * rows of each block in random order, so each draw
+	 * stays within a block that is already in the cache.
+	 *
+	 * */
+	SHUFFLED_BLOCKS
+	{
+		int [] order(int rows, int [] lastNodes, int nodes, Random random)
+		{
+			int blocks = (rows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+			int [] blockOrder = new int[blocks];
+			for(int b = 0; b < blocks; b++)
+			{
+				blockOrder[b] = b;
+			}
+			shuffle(blockOrder, 0, blocks, random);
+			int [] order = new int[rows];
+			int count = 0;
+			for(int b : blockOrder)
+			{
+				int from = count;
+				for(int i = b * BLOCK_ROWS; i < Math.min(rows, (b + 1) * BLOCK_ROWS); i++)
+				{
+					order[count++] = i;
+				}
+				shuffle(order, from, count, random);
+			}
+			return order;
+		}
+	},
+
+	/**
+	 * The rows are grouped by their nearest node in the
+	 * previous epoch; the groups are visited in random
+	 * order and the rows of each group in random order, so
+	 * successive rows are similar and their searches for the
+	 * nearest node start from a close match. The first
+	 * epoch uses shuffled blocks.
+	 *
+	 * */
+	BMU_GROUPED
+	{
+		int [] order(int rows, int [] lastNodes, int nodes, Random random)
+		{
+			if(lastNodes == null)
+			{
+				return SHUFFLED_BLOCKS.order(rows, null, nodes, random);
+			}
+			int [] nodeOrder = new int[nodes];
+			for(int j = 0; j < nodes; j++)
+			{
+				nodeOrder[j] = j;
+			}
+			shuffle(nodeOrder, 0, nodes, random);
+			// Counting sort of the rows by node, with the nodes in shuffled order
+			int [] start = new int[nodes + 1];
+			for(int i = 0; i < rows; i++)
+			{
+				start[lastNodes[i] + 1]++;
+			}
+			int [] next = new int[nodes];
+			int count = 0;
+			for(int j : nodeOrder)
+			{
+				next[j] = count;
+				count += start[j + 1];
+			}
+			int [] order = new int[rows];
+			for(int i = 0; i < rows; i++)
+			{
+				order[next[lastNodes[i]]++] = i;
+			}
+			// Every group now ends where the next one starts
+			int from = 0;
+			for(int j : nodeOrder)
+			{
+				shuffle(order, from, next[j], random);
+				from = next[j];
+			}
+			return order;
+		}
+	};
+
+	// Number of consecutive rows in a block
+	private static final int BLOCK_ROWS = 256;
+
+
+	/**
+	 * The order in which the rows are presented
+	 * during one epoch.
+	 *
+	 * @param rows The number of rows
+	 * @param lastNodes The nearest node of each row in the
+	 * previous epoch, or null in the first epoch
+	 * @param nodes The number of nodes on the map
+	 * @param random The source of random numbers
+	 *
+	 * @return Every row once, or null if each row
+	 * is drawn independently
+	 *
+	 * */
+	abstract int [] order(int rows, int [] lastNodes, int nodes, Random random);
+
+
+	/**
+	 * Shuffle part of an array in place.
+	 *
+	 * @param values The array
+	 * @param from The first position to shuffle
+	 * @param to One past the last position to shuffle
+	 * @param random The source of random numbers
+	 *
+	 * */
+	private static void shuffle(int [] values, int from, int to, Random random)
+	{
+		for(int i = to - 1; i > from; i--)
+		{
+			int j = from + random.nextInt(i - from + 1);
+			int tmp = values[i];
+			values[i] = values[j];
+			values[j] = tmp;
+		}
+	}
+}
@@ -0,0 +1,843 @@
+//ScoringServer.java
+/**
+ * Local HTTP server for scoring observations with a trained map.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * This server loads a saved Codebook and assigns the rows
+ * posted to it to their nearest nodes. It only listens on
+ * the loopback interface. Requests are handled on virtual
+ * threads when the JDK provides them and on a cached thread
+ * pool otherwise. Rows from concurrent requests are gathered
+ * into micro-batches that are scored together in one pass
+ * over the codebook, by one batcher thread per core by
+ * default so batches are scored in parallel. The endpoints
+ * are:
+ *
+ * POST /score   Rows as JSON, {"rows": [[1.0, 2.0], [3.0, 4.0]]}
+ *               or [[1.0, 2.0], [3.0, 4.0]], answered with
+ *               {"nodes": [...], "distances": [...]}. With the
+ *               content type application/octet-stream the body
+ *               is the number of rows and columns as ints and
+ *               then the values as doubles, answered with the
+ *               number of rows and then a node (int) and squared
+ *               distance (double) for each row, all big-endian.
+ *               A request may hold at most maxBatchRows rows,
+ *               and a JSON body longer than 32 bytes per value
+ *               of that many rows is refused with status 413.
+ * GET /metrics  Request, row and batch counters, throughput and
+ *               a histogram of request latencies as JSON.
+ *
+ * Usage:
+ *
+ * java ScoringServer model.bin [port] [maxBatchRows] [maxWaitMicros] [batchers]
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.lang.reflect.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+public class ScoringServer
+{
+	// Number of latency buckets; bucket b counts latencies below 2^b microseconds
+	private static final int BUCKETS = 26;
+	// Content type for binary requests and responses
+	private static final String BINARY = "application/octet-stream";
+	// Longest JSON text allowed for each value of a request
+	private static final int JSON_BYTES_PER_VALUE = 32;
+
+	// The model used for scoring
+	private final Codebook codebook;
+	// Port to listen on, zero for any free port
+	private final int port;
+	// Largest number of rows scored in one batch
+	private final int maxBatchRows;
+	// Longest time to wait for more rows before scoring a batch
+	private final long maxWaitNanos;
+	// Number of threads scoring batches
+	private final int batcherCount;
+	// Longest JSON request body in bytes
+	private final long maxJsonBytes;
+	// Requests waiting to be batched
+	private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private Thread [] batchers;
+	private volatile boolean running;
+
+	// Metrics
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong rowsScored = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLongArray latency = new AtomicLongArray(BUCKETS);
+	private long startTime;
+
+
+	/**
+	 * A request waiting for its rows to be scored.
+	 *
+	 * */
+	private static final class Pending
+	{
+		final double [][] rows;
+		final int [] nodes;
+		final double [] distances;
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile RuntimeException failure;
+
+		Pending(double [][] rows)
+		{
+			this.rows = rows;
+			this.nodes = new int[rows.length];
+			this.distances = new double[rows.length];
+		}
+	}
+
+
+	/**
+	 * Constructor for the server with one batcher
+	 * thread per core.
+	 *
+	 * @param codebook The model used for scoring
+	 * @param port The port to listen on, or zero
+	 * for any free port
+	 * @param maxBatchRows The largest number of rows
+	 * scored in one batch, and in one request
+	 * @param maxWaitMicros The longest time in microseconds
+	 * to wait for more rows before scoring a batch
+	 *
+	 * */
+	public ScoringServer(Codebook codebook, int port, int maxBatchRows, long maxWaitMicros)
+	{
+		this(codebook, port, maxBatchRows, maxWaitMicros, Runtime.getRuntime().availableProcessors());
+	}
+
+
+	/**
+	 * Constructor for the server.
+	 *
+	 * @param codebook The model used for scoring
+	 * @param port The port to listen on, or zero
+	 * for any free port
+	 * @param maxBatchRows The largest number of rows
+	 * scored in one batch, and in one request
+	 * @param maxWaitMicros The longest time in microseconds
+	 * to wait for more rows before scoring a batch
+	 * @param batchers The number of threads that take
+	 * requests from the queue and score them in batches
+	 *
+	 * */
+	public ScoringServer(Codebook codebook, int port, int maxBatchRows, long maxWaitMicros, int batchers)
+	{
+		if(port < 0 || maxBatchRows <= 0 || maxWaitMicros < 0 || batchers <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.codebook = codebook;
+		this.port = port;
+		this.maxBatchRows = maxBatchRows;
+		this.maxWaitNanos = maxWaitMicros * 1000;
+		this.batcherCount = batchers;
+		this.maxJsonBytes = 1024 + (long)JSON_BYTES_PER_VALUE * maxBatchRows * codebook.getColumns();
+	}
+
+
+	/**
+	 * Start listening for requests. Small responses are
+	 * sent sooner when the JVM-wide system property
+	 * sun.net.httpserver.nodelay is true before the first
+	 * server is created; main() sets it, but an application
+	 * embedding the server has to set it itself.
+	 *
+	 * */
+	public synchronized void start() throws IOException
+	{
+		if(this.running)
+		{
+			return;
+		}
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.port), 0);
+		this.server.createContext("/score", new HttpHandler()
+		{
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				handleScore(exchange);
+			}
+		});
+		this.server.createContext("/metrics", new HttpHandler()
+		{
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				handleMetrics(exchange);
+			}
+		});
+		this.executor = newExecutor();
+		this.server.setExecutor(this.executor);
+		this.running = true;
+		// Every batcher drains the same queue, so batches are scored in parallel
+		this.batchers = new Thread[this.batcherCount];
+		for(int b = 0; b < this.batchers.length; b++)
+		{
+			this.batchers[b] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					runBatches();
+				}
+			}, "kohonen4j-batcher-" + b);
+			this.batchers[b].setDaemon(true);
+			this.batchers[b].start();
+		}
+		this.startTime = System.nanoTime();
+		this.server.start();
+	}
+
+
+	/**
+	 * Stop the server.
+	 *
+	 * */
+	public synchronized void stop()
+	{
+		if(!this.running)
+		{
+			return;
+		}
+		this.running = false;
+		this.server.stop(0);
+		for(Thread batcher : this.batchers)
+		{
+			batcher.interrupt();
+		}
+		// Release requests that were never batched
+		List <Pending> waiting = new ArrayList <>();
+		this.queue.drainTo(waiting);
+		fail(waiting);
+		for(Pending pending : waiting)
+		{
+			pending.done.countDown();
+		}
+		this.executor.shutdownNow();
+	}
+
+
+	/**
+	 * Getter method for the port the server listens on.
+	 *
+	 * @return The port, which is only known for
+	 * port zero once the server has started
+	 *
+	 * */
+	public int getPort()
+	{
+		return this.server != null ? this.server.getAddress().getPort() : this.port;
+	}
+
+
+	/**
+	 * Create an executor that runs each request on a
+	 * virtual thread if the JDK supports them, or on
+	 * a cached thread pool otherwise.
+	 *
+	 * @return The executor for handling requests
+	 *
+	 * */
+	private static ExecutorService newExecutor()
+	{
+		try
+		{
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)factory.invoke(null);
+		}
+		catch(ReflectiveOperationException roe)
+		{
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+
+	/**
+	 * Gather pending requests into batches and score them
+	 * until the server stops. A batch is scored once it has
+	 * maxBatchRows rows or the oldest request has waited
+	 * maxWaitMicros. Each batcher thread runs this loop.
+	 *
+	 * */
+	private void runBatches()
+	{
+		List <Pending> batch = new ArrayList <>();
+		while(this.running)
+		{
+			try
+			{
+				Pending first = this.queue.take();
+				batch.add(first);
+				int rows = first.rows.length;
+				long deadline = System.nanoTime() + this.maxWaitNanos;
+				while(rows < this.maxBatchRows)
+				{
+					long wait = deadline - System.nanoTime();
+					Pending next = wait > 0 ? this.queue.poll(wait, TimeUnit.NANOSECONDS) : this.queue.poll();
+					if(next == null)
+					{
+						break;
+					}
+					batch.add(next);
+					rows += next.rows.length;
+				}
+				scoreBatch(batch, rows);
+			}
+			catch(InterruptedException ie)
+			{
+				fail(batch);
+				break;
+			}
+			finally
+			{
+				for(Pending pending : batch)
+				{
+					pending.done.countDown();
+				}
+				batch.clear();
+			}
+		}
+	}
+
+
+	/**
+	 * Mark requests as failed because the server stopped.
+	 *
+	 * @param batch The requests
+	 *
+	 * */
+	private static void fail(List <Pending> batch)
+	{
+		RuntimeException stopped = new IllegalStateException("The server stopped");
+		for(Pending pending : batch)
+		{
+			pending.failure = stopped;
+		}
+	}
+
+
+	/**
+	 * Score the rows of several requests together.
+	 *
+	 * @param batch The requests
+	 * @param rows The total number of rows
+	 *
+	 * */
+	private void scoreBatch(List <Pending> batch, int rows)
+	{
+		double [][] combined = new double[rows][];
+		int count = 0;
+		for(Pending pending : batch)
+		{
+			System.arraycopy(pending.rows, 0, combined, count, pending.rows.length);
+			count += pending.rows.length;
+		}
+		int [] nodes = new int[rows];
+		double [] distances = new double[rows];
+		try
+		{
+			this.codebook.score(combined, 0, rows, nodes, distances);
+		}
+		catch(RuntimeException re)
+		{
+			for(Pending pending : batch)
+			{
+				pending.failure = re;
+			}
+			return;
+		}
+		count = 0;
+		for(Pending pending : batch)
+		{
+			System.arraycopy(nodes, count, pending.nodes, 0, pending.rows.length);
+			System.arraycopy(distances, count, pending.distances, 0, pending.rows.length);
+			count += pending.rows.length;
+		}
+		this.batches.incrementAndGet();
+		this.rowsScored.addAndGet(rows);
+	}
+
+
+	/**
+	 * Handle a scoring request.
+	 *
+	 * @param exchange The HTTP exchange
+	 *
+	 * */
+	private void handleScore(HttpExchange exchange) throws IOException
+	{
+		long start = System.nanoTime();
+		try
+		{
+			if(!exchange.getRequestMethod().equals("POST"))
+			{
+				respond(exchange, 405, "text/plain", "Use POST".getBytes("UTF-8"));
+				return;
+			}
+			String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+			boolean binary = contentType != null && contentType.startsWith(BINARY);
+			double [][] rows;
+			try
+			{
+				String header = exchange.getRequestHeaders().getFirst("Content-Length");
+				long length = header != null ? Long.parseLong(header) : -1;
+				String text = null;
+				if(!binary)
+				{
+					text = length <= this.maxJsonBytes ? readBody(exchange.getRequestBody(), this.maxJsonBytes) : null;
+					if(text == null)
+					{
+						this.errors.incrementAndGet();
+						respond(exchange, 413, "text/plain", ("A JSON body may hold at most " + this.maxJsonBytes
+							+ " bytes").getBytes("UTF-8"));
+						return;
+					}
+				}
+				rows = binary ? readBinary(exchange.getRequestBody(), length) : parseJson(text);
+				if(rows.length > this.maxBatchRows)
+				{
+					throw new IllegalArgumentException("A request may hold at most " + this.maxBatchRows + " rows");
+				}
+				for(double [] row : rows)
+				{
+					if(row.length != this.codebook.getColumns())
+					{
+						throw new IllegalArgumentException("Every row needs " + this.codebook.getColumns() + " values");
+					}
+				}
+			}
+			catch(IllegalArgumentException iae)
+			{
+				this.errors.incrementAndGet();
+				respond(exchange, 400, "text/plain", String.valueOf(iae.getMessage()).getBytes("UTF-8"));
+				return;
+			}
+			Pending pending = new Pending(rows);
+			if(rows.length > 0)
+			{
+				this.queue.add(pending);
+				// A request queued as the server stops is never batched
+				while(!pending.done.await(100, TimeUnit.MILLISECONDS))
+				{
+					if(!this.running)
+					{
+						pending.failure = new IllegalStateException("The server stopped");
+						break;
+					}
+				}
+			}
+			if(pending.failure != null)
+			{
+				this.errors.incrementAndGet();
+				respond(exchange, 500, "text/plain", "Scoring failed".getBytes("UTF-8"));
+				return;
+			}
+			if(binary)
+			{
+				respond(exchange, 200, BINARY, writeBinary(pending));
+			}
+			else
+			{
+				respond(exchange, 200, "application/json", writeJson(pending).getBytes("UTF-8"));
+			}
+			this.requests.incrementAndGet();
+			recordLatency(System.nanoTime() - start);
+		}
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			this.errors.incrementAndGet();
+			respond(exchange, 503, "text/plain", "Server is stopping".getBytes("UTF-8"));
+		}
+	}
+
+
+	/**
+	 * Handle a metrics request.
+	 *
+	 * @param exchange The HTTP exchange
+	 *
+	 * */
+	private void handleMetrics(HttpExchange exchange) throws IOException
+	{
+		double seconds = (System.nanoTime() - this.startTime) / 1e9;
+		long [] counts = new long[BUCKETS];
+		long total = 0;
+		for(int b = 0; b < BUCKETS; b++)
+		{
+			counts[b] = this.latency.get(b);
+			total += counts[b];
+		}
+		StringBuilder json = new StringBuilder();
+		json.append("{\"requests\": ").append(this.requests.get());
+		json.append(", \"rows\": ").append(this.rowsScored.get());
+		json.append(", \"batches\": ").append(this.batches.get());
+		json.append(", \"errors\": ").append(this.errors.get());
+		json.append(", \"uptimeSeconds\": ").append(String.format(Locale.ROOT, "%.3f", seconds));
+		json.append(", \"requestsPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", this.requests.get() / seconds));
+		json.append(", \"rowsPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", this.rowsScored.get() / seconds));
+		json.append(", \"latencyMicros\": {\"p50\": ").append(percentile(counts, total, 0.5));
+		json.append(", \"p90\": ").append(percentile(counts, total, 0.9));
+		json.append(", \"p99\": ").append(percentile(counts, total, 0.99));
+		json.append(", \"histogram\": {");
+		boolean first = true;
+		for(int b = 0; b < BUCKETS; b++)
+		{
+			if(counts[b] == 0)
+			{
+				continue;
+			}
+			json.append(first ? "" : ", ").append("\"<").append(1L << b).append("\": ").append(counts[b]);
+			first = false;
+		}
+		json.append("}}}");
+		respond(exchange, 200, "application/json", json.toString().getBytes("UTF-8"));
+	}
+
+
+	/**
+	 * Record the latency of a request in the histogram.
+	 *
+	 * @param nanos The latency in nanoseconds
+	 *
+	 * */
+	private void recordLatency(long nanos)
+	{
+		long micros = Math.max(0, nanos / 1000);
+		// Bucket b holds latencies from 2^(b-1) up to 2^b microseconds
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		this.latency.incrementAndGet(Math.min(BUCKETS - 1, bucket));
+	}
+
+
+	/**
+	 * Estimate a latency percentile from the histogram.
+	 *
+	 * @param counts The count in each bucket
+	 * @param total The total count
+	 * @param p The percentile as a proportion
+	 *
+	 * @return The upper bound in microseconds of the bucket
+	 * holding the percentile, or zero without any requests
+	 *
+	 * */
+	private static long percentile(long [] counts, long total, double p)
+	{
+		long target = (long)Math.ceil(total * p);
+		long seen = 0;
+		for(int b = 0; b < counts.length; b++)
+		{
+			seen += counts[b];
+			if(seen >= target && seen > 0)
+			{
+				return 1L << b;
+			}
+		}
+		return 0;
+	}
+
+
+	/**
+	 * Send a response and close the exchange.
+	 *
+	 * @param exchange The HTTP exchange
+	 * @param status The HTTP status code
+	 * @param contentType The content type of the body
+	 * @param body The body
+	 *
+	 * */
+	private static void respond(HttpExchange exchange, int status, String contentType, byte [] body) throws IOException
+	{
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		try
+		{
+			out.write(body);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Read a request body as text, stopping once it is
+	 * longer than a limit.
+	 *
+	 * @param in The request body
+	 * @param limit The longest body in bytes
+	 *
+	 * @return The body, or null if it is longer than the limit
+	 *
+	 * */
+	private static String readBody(InputStream in, long limit) throws IOException
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte [] chunk = new byte[8192];
+		int read;
+		while((read = in.read(chunk)) != -1)
+		{
+			buffer.write(chunk, 0, read);
+			if(buffer.size() > limit)
+			{
+				return null;
+			}
+		}
+		return buffer.toString("UTF-8");
+	}
+
+
+	/**
+	 * Read rows in the binary format. The header is checked
+	 * against the row limit and the length of the body before
+	 * anything is allocated, and each row is only allocated
+	 * once its values have arrived.
+	 *
+	 * @param body The request body
+	 * @param length The declared length of the body in
+	 * bytes, or -1 if it is not known
+	 *
+	 * @return The rows
+	 *
+	 * */
+	private double [][] readBinary(InputStream body, long length) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(body));
+		int rows;
+		int columns;
+		try
+		{
+			rows = in.readInt();
+			columns = in.readInt();
+			if(rows < 0 || columns != this.codebook.getColumns())
+			{
+				throw new IllegalArgumentException("Every row needs " + this.codebook.getColumns() + " values");
+			}
+			if(rows > this.maxBatchRows)
+			{
+				throw new IllegalArgumentException("A request may hold at most " + this.maxBatchRows + " rows");
+			}
+			if(length >= 0 && 8 + 8L * rows * columns != length)
+			{
+				throw new IllegalArgumentException("The body is not as long as its header says");
+			}
+			double [][] result = new double[rows][];
+			for(int i = 0; i < rows; i++)
+			{
+				double [] row = new double[columns];
+				for(int k = 0; k < columns; k++)
+				{
+					row[k] = in.readDouble();
+				}
+				result[i] = row;
+			}
+			return result;
+		}
+		catch(EOFException eofe)
+		{
+			throw new IllegalArgumentException("The body is shorter than its header says");
+		}
+	}
+
+
+	/**
+	 * Write the scores in the binary format.
+	 *
+	 * @param pending The scored request
+	 *
+	 * @return The response body
+	 *
+	 * */
+	private static byte [] writeBinary(Pending pending) throws IOException
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(4 + pending.rows.length * 12);
+		DataOutputStream out = new DataOutputStream(buffer);
+		out.writeInt(pending.rows.length);
+		for(int i = 0; i < pending.rows.length; i++)
+		{
+			out.writeInt(pending.nodes[i]);
+			out.writeDouble(pending.distances[i]);
+		}
+		out.flush();
+		return buffer.toByteArray();
+	}
+
+
+	/**
+	 * Write the scores as JSON.
+	 *
+	 * @param pending The scored request
+	 *
+	 * @return The response body
+	 *
+	 * */
+	private static String writeJson(Pending pending)
+	{
+		StringBuilder json = new StringBuilder(pending.rows.length * 24 + 32);
+		json.append("{\"nodes\": [");
+		for(int i = 0; i < pending.nodes.length; i++)
+		{
+			json.append(i > 0 ? ", " : "").append(pending.nodes[i]);
+		}
+		json.append("], \"distances\": [");
+		for(int i = 0; i < pending.distances.length; i++)
+		{
+			json.append(i > 0 ? ", " : "").append(pending.distances[i]);
+		}
+		json.append("]}");
+		return json.toString();
+	}
+
+
+	/**
+	 * Parse rows from JSON. The body is either an array
+	 * of arrays of numbers or an object whose "rows" member
+	 * is one; nothing else in the object is read.
+	 *
+	 * @param body The request body
+	 *
+	 * @return The rows
+	 *
+	 * */
+	static double [][] parseJson(String body)
+	{
+		String text = body.trim();
+		int pos = 0;
+		if(text.startsWith("{"))
+		{
+			int key = text.indexOf("\"rows\"");
+			if(key < 0)
+			{
+				throw new IllegalArgumentException("Expected a \"rows\" member");
+			}
+			pos = text.indexOf(':', key) + 1;
+		}
+		List <double[]> rows = new ArrayList <>();
+		List <Double> row = new ArrayList <>();
+		int depth = 0;
+		int start = -1;
+		for(; pos < text.length(); pos++)
+		{
+			char c = text.charAt(pos);
+			if(c == '[')
+			{
+				depth++;
+				if(depth > 2)
+				{
+					throw new IllegalArgumentException("Rows should be arrays of numbers");
+				}
+				row.clear();
+			}
+			else if(c == ']' || c == ',')
+			{
+				if(start >= 0)
+				{
+					try
+					{
+						row.add(Double.parseDouble(text.substring(start, pos)));
+					}
+					catch(NumberFormatException nfe)
+					{
+						throw new IllegalArgumentException("Rows should contain only numeric data");
+					}
+					start = -1;
+				}
+				if(c == ']')
+				{
+					if(depth == 2)
+					{
+						double [] values = new double[row.size()];
+						for(int k = 0; k < values.length; k++)
+						{
+							values[k] = row.get(k);
+						}
+						rows.add(values);
+					}
+					depth--;
+					if(depth == 0)
+					{
+						return rows.toArray(new double[0][]);
+					}
+				}
+			}
+			else if(!Character.isWhitespace(c))
+			{
+				if(depth != 2)
+				{
+					throw new IllegalArgumentException("Expected an array of rows");
+				}
+				if(start < 0)
+				{
+					start = pos;
+				}
+			}
+		}
+		throw new IllegalArgumentException("Expected an array of rows");
+	}
+
+
+	// Main method
+	public static void main(String [] args)
+	{
+		if(args.length < 1)
+		{
+			System.err.println("Usage: java ScoringServer model.bin [port] [maxBatchRows] [maxWaitMicros] [batchers]");
+			return;
+		}
+		try
+		{
+			Codebook codebook = Codebook.load(new File(args[0]));
+			int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+			int maxBatchRows = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+			long maxWaitMicros = args.length > 3 ? Long.parseLong(args[3]) : 200;
+			int batchers = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+			ScoringServer server = new ScoringServer(codebook, port, maxBatchRows, maxWaitMicros, batchers);
+			// Small responses otherwise wait on delayed acknowledgements
+			if(System.getProperty("sun.net.httpserver.nodelay") == null)
+			{
+				System.setProperty("sun.net.httpserver.nodelay", "true");
+			}
+			server.start();
+			System.out.println("Scoring " + codebook.getXDim() + "x" + codebook.getYDim()
+				+ " map on http://localhost:" + server.getPort() + "/score");
+		}
+		catch(IOException ioe)
+		{
+			System.err.println("IOException: " + ioe.getMessage());
+		}
+		catch(IllegalArgumentException iae)
+		{
+			System.err.println("The port, batch size and wait should be non-negative integers"
+				+ " and the number of batchers a positive integer.");
+		}
+	}
+}
@@ -0,0 +1,565 @@
+//ShardWorker.java
+/**
+ * Hold one shard of the data for distributed training.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * A ShardWorker answers the requests of a DistributedSOM
+ * for its rows: column statistics for scaling, random rows
+ * for the initial weights, and in every epoch the sum and
+ * count of the rows nearest to each node. Only these sums
+ * leave the worker, never the rows themselves. The rows
+ * are split between all the cores of the machine. Run as
+ * its own process, the worker reads only every count-th
+ * row of a headerless csv file starting at row index, and
+ * serves a coordinator over a socket on the loopback
+ * interface, or on the given local address for a
+ * coordinator on another machine. Usage:
+ *
+ * java ShardWorker data.csv port [index count [address]]
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+public class ShardWorker implements Transport.Shard
+{
+	// Pool shared by all workers in a process
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+	// Number of rows scored in one batch
+	private static final int BATCH = 256;
+
+	// The rows of the shard in the units of the data
+	private final Dataset data;
+	// The rows after scaling
+	private double [][] scaled;
+	// Number of tasks the rows are split between
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+
+	/**
+	 * Column statistics of a shard. Statistics of several
+	 * shards are combined with add(), so the coordinator
+	 * finds the same centers and scales as for the whole data.
+	 *
+	 * */
+	public static final class Stats
+	{
+		private long rows;
+		private final double [] mean;
+		private final double [] sumSquares;
+
+		/**
+		 * Constructor for the Stats.
+		 *
+		 * @param rows The number of rows
+		 * @param mean The mean of each column
+		 * @param sumSquares The sum of squared deviations
+		 * from the mean of each column
+		 *
+		 * */
+		public Stats(long rows, double [] mean, double [] sumSquares)
+		{
+			this.rows = rows;
+			this.mean = mean;
+			this.sumSquares = sumSquares;
+		}
+
+		/**
+		 * Getter method for rows.
+		 *
+		 * @return the number of rows.
+		 *
+		 * */
+		public long getRows()
+		{
+			return this.rows;
+		}
+
+		/**
+		 * Getter method for a column mean.
+		 *
+		 * @param column The column position
+		 *
+		 * @return The mean of the column
+		 *
+		 * */
+		public double getMean(int column)
+		{
+			return this.mean[column];
+		}
+
+		/**
+		 * Getter method for a sum of squared deviations.
+		 *
+		 * @param column The column position
+		 *
+		 * @return The sum of squared deviations of the column
+		 *
+		 * */
+		public double getSumSquares(int column)
+		{
+			return this.sumSquares[column];
+		}
+
+		/**
+		 * Getter method for the number of columns.
+		 *
+		 * @return the number of columns.
+		 *
+		 * */
+		public int getColumns()
+		{
+			return this.mean.length;
+		}
+
+		/**
+		 * Combine the statistics of another shard into these.
+		 *
+		 * @param other The statistics of the other shard
+		 *
+		 * */
+		public void add(Stats other)
+		{
+			if(other.mean.length != this.mean.length)
+			{
+				throw new IllegalArgumentException("The shards have different numbers of columns");
+			}
+			long total = this.rows + other.rows;
+			if(total == 0)
+			{
+				return;
+			}
+			for(int k = 0; k < this.mean.length; k++)
+			{
+				// Chan et al.'s update for combining variances
+				double delta = other.mean[k] - this.mean[k];
+				this.sumSquares[k] += other.sumSquares[k] + delta * delta * this.rows * other.rows / total;
+				this.mean[k] += delta * other.rows / total;
+			}
+			this.rows = total;
+		}
+	}
+
+
+	/**
+	 * The sums of one epoch of a shard: the number and sum of
+	 * the rows nearest to each node, and the number of rows
+	 * and sum of their distances to their nodes.
+	 *
+	 * */
+	public static final class Partial
+	{
+		private long rows;
+		private double distanceSum;
+		private final long [] counts;
+		private final double [] sums;
+
+		/**
+		 * Constructor for an empty Partial.
+		 *
+		 * @param nodes The number of nodes
+		 * @param columns The number of columns
+		 *
+		 * */
+		public Partial(int nodes, int columns)
+		{
+			this.counts = new long[nodes];
+			this.sums = new double[nodes * columns];
+		}
+
+		/**
+		 * Constructor for a Partial read from a worker.
+		 *
+		 * @param rows The number of rows
+		 * @param distanceSum The sum of the distances
+		 * @param counts The number of rows nearest to each node
+		 * @param sums The sum of the rows nearest to each node,
+		 * one row of columns after another
+		 *
+		 * */
+		public Partial(long rows, double distanceSum, long [] counts, double [] sums)
+		{
+			this.rows = rows;
+			this.distanceSum = distanceSum;
+			this.counts = counts;
+			this.sums = sums;
+		}
+
+		/**
+		 * Getter method for rows.
+		 *
+		 * @return the number of rows summed.
+		 *
+		 * */
+		public long getRows()
+		{
+			return this.rows;
+		}
+
+		/**
+		 * Getter method for distanceSum.
+		 *
+		 * @return the sum of the distances from the rows to their nodes.
+		 *
+		 * */
+		public double getDistanceSum()
+		{
+			return this.distanceSum;
+		}
+
+		/**
+		 * Getter method for a node count.
+		 *
+		 * @param node The node
+		 *
+		 * @return The number of rows nearest to the node
+		 *
+		 * */
+		public long getCount(int node)
+		{
+			return this.counts[node];
+		}
+
+		/**
+		 * Getter method for a sum.
+		 *
+		 * @param position The node times the number of columns
+		 * plus the column
+		 *
+		 * @return The sum of the column over the rows nearest to the node
+		 *
+		 * */
+		public double getSum(int position)
+		{
+			return this.sums[position];
+		}
+
+		/**
+		 * Getter method for the number of nodes.
+		 *
+		 * @return the number of nodes.
+		 *
+		 * */
+		public int getNodes()
+		{
+			return this.counts.length;
+		}
+
+		/**
+		 * Add the sums of another shard to these.
+		 *
+		 * @param other The sums of the other shard
+		 *
+		 * */
+		public void add(Partial other)
+		{
+			if(other.sums.length != this.sums.length)
+			{
+				throw new IllegalArgumentException("The sums are for different maps");
+			}
+			this.rows += other.rows;
+			this.distanceSum += other.distanceSum;
+			for(int j = 0; j < this.counts.length; j++)
+			{
+				this.counts[j] += other.counts[j];
+			}
+			for(int i = 0; i < this.sums.length; i++)
+			{
+				this.sums[i] += other.sums[i];
+			}
+		}
+	}
+
+
+	/**
+	 * Constructor for the ShardWorker.
+	 *
+	 * @param data The rows of the shard
+	 *
+	 * */
+	public ShardWorker(Dataset data)
+	{
+		this.data = data;
+	}
+
+
+	/**
+	 * Setter method for threads.
+	 *
+	 * @param threads The number of tasks the rows are split between
+	 *
+	 * */
+	public void setThreads(int threads)
+	{
+		if(threads <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.threads = threads;
+	}
+
+
+	/**
+	 * Getter method for data.
+	 *
+	 * @return the rows of the shard.
+	 *
+	 * */
+	public Dataset getData()
+	{
+		return this.data;
+	}
+
+
+	/**
+	 * Summarize the columns of the shard for scaling.
+	 *
+	 * @return The count, means and sums of squared
+	 * deviations of the columns
+	 *
+	 * */
+	public synchronized Stats stats()
+	{
+		int columns = this.data.getColumns();
+		double [] mean = new double[columns];
+		double [] sumSquares = new double[columns];
+		int rows = this.data.getRows();
+		// Welford's one pass update
+		for(int i = 0; i < rows; i++)
+		{
+			double [] row = this.data.rowArray(i);
+			for(int k = 0; k < columns; k++)
+			{
+				double delta = row[k] - mean[k];
+				mean[k] += delta / (i + 1);
+				sumSquares[k] += delta * (row[k] - mean[k]);
+			}
+		}
+		return new Stats(rows, mean, sumSquares);
+	}
+
+
+	/**
+	 * Scale the shard. The scaled rows are kept
+	 * for the rest of the training.
+	 *
+	 * @param center The value subtracted from each column
+	 * @param scale The value each centered column is divided by
+	 *
+	 * */
+	public synchronized void setScaling(double [] center, double [] scale)
+	{
+		int columns = this.data.getColumns();
+		if(center.length != columns || scale.length != columns)
+		{
+			throw new IllegalArgumentException("The scaling has the wrong number of columns");
+		}
+		this.scaled = new double[this.data.getRows()][columns];
+		for(int i = 0; i < this.scaled.length; i++)
+		{
+			double [] row = this.data.rowArray(i);
+			for(int k = 0; k < columns; k++)
+			{
+				this.scaled[i][k] = (row[k] - center[k]) / scale[k];
+			}
+		}
+	}
+
+
+	/**
+	 * Draw random scaled rows without replacement.
+	 *
+	 * @param count The number of rows wanted
+	 * @param seed The seed for the random numbers
+	 *
+	 * @return At most count rows
+	 *
+	 * */
+	public synchronized double [][] sample(int count, long seed)
+	{
+		checkScaled();
+		Random random = new Random(seed);
+		int rows = this.scaled.length;
+		count = Math.min(count, rows);
+		// Partial Fisher-Yates shuffle of the row positions
+		int [] order = new int[rows];
+		for(int i = 0; i < rows; i++)
+		{
+			order[i] = i;
+		}
+		double [][] result = new double[count][];
+		for(int i = 0; i < count; i++)
+		{
+			int pick = i + random.nextInt(rows - i);
+			int tmp = order[i];
+			order[i] = order[pick];
+			order[pick] = tmp;
+			result[i] = this.scaled[order[i]].clone();
+		}
+		return result;
+	}
+
+
+	/**
+	 * Assign every row of the shard to its nearest node and
+	 * sum the rows assigned to each node, splitting the rows
+	 * between the cores.
+	 *
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 * @param weights The scaled weights of the nodes, one
+	 * row of columns after another
+	 *
+	 * @return The partial sums of the shard
+	 *
+	 * */
+	public synchronized Partial epoch(int xDim, int yDim, double [] weights)
+	{
+		checkScaled();
+		final int columns = this.data.getColumns();
+		final int nodes = xDim * yDim;
+		if(weights.length != nodes * columns)
+		{
+			throw new IllegalArgumentException("The weights have the wrong size");
+		}
+		// The rows are already scaled, so the Codebook does not scale them
+		double [] center = new double[columns];
+		double [] scale = new double[columns];
+		Arrays.fill(scale, 1);
+		final Codebook codebook = new Codebook(xDim, yDim, weights, center, scale);
+
+		List <Callable<Partial>> tasks = new ArrayList <>();
+		int rows = this.scaled.length;
+		int chunk = Math.max(BATCH, (rows + this.threads - 1) / this.threads);
+		for(int start = 0; start < rows; start += chunk)
+		{
+			final int from = start;
+			final int to = Math.min(rows, start + chunk);
+			tasks.add(new Callable<Partial>()
+			{
+				public Partial call()
+				{
+					return sum(codebook, from, to, nodes, columns);
+				}
+			});
+		}
+		Partial result = new Partial(nodes, columns);
+		for(Future<Partial> task : POOL.invokeAll(tasks))
+		{
+			try
+			{
+				result.add(task.get());
+			}
+			catch(InterruptedException ie)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("The epoch was interrupted", ie);
+			}
+			catch(ExecutionException ee)
+			{
+				throw new IllegalStateException("The epoch failed", ee.getCause());
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * Sum a range of rows by their nearest nodes.
+	 *
+	 * @param codebook The current weights
+	 * @param from The first row
+	 * @param to One past the last row
+	 * @param nodes The number of nodes
+	 * @param columns The number of columns
+	 *
+	 * @return The sums of the range
+	 *
+	 * */
+	private Partial sum(Codebook codebook, int from, int to, int nodes, int columns)
+	{
+		Partial partial = new Partial(nodes, columns);
+		int [] nearest = new int[BATCH];
+		double [] distances = new double[BATCH];
+		for(int batch = from; batch < to; batch += BATCH)
+		{
+			int batchEnd = Math.min(to, batch + BATCH);
+			codebook.score(this.scaled, batch, batchEnd, nearest, distances);
+			for(int i = batch; i < batchEnd; i++)
+			{
+				int node = nearest[i - batch];
+				double [] row = this.scaled[i];
+				int offset = node * columns;
+				for(int k = 0; k < columns; k++)
+				{
+					partial.sums[offset + k] += row[k];
+				}
+				partial.counts[node]++;
+				// The distances are squared
+				partial.distanceSum += Math.sqrt(distances[i - batch]);
+			}
+		}
+		partial.rows = to - from;
+		return partial;
+	}
+
+
+	private void checkScaled()
+	{
+		if(this.scaled == null)
+		{
+			throw new IllegalStateException("The shard has not been scaled");
+		}
+	}
+
+
+	// Main method
+	public static void main(String [] args)
+	{
+		if(args.length < 2)
+		{
+			System.err.println("Usage: java ShardWorker data.csv port [index count [address]]");
+			return;
+		}
+		try
+		{
+			int port = Integer.parseInt(args[1]);
+			// Keep every count-th row starting at index, reading only those rows
+			int index = args.length > 3 ? Integer.parseInt(args[2]) : 0;
+			int count = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+			Dataset data = Dataset.readCsv(args[0], index, count);
+			InetAddress address = args.length > 4 ? InetAddress.getByName(args[4]) : InetAddress.getLoopbackAddress();
+			System.out.println("Serving " + data.getRows() + " rows on " + address.getHostAddress() + " port " + port);
+			SocketTransport.serve(new ShardWorker(data), port, address);
+		}
+		catch(IOException ioe)
+		{
+			System.err.println("IOException: " + ioe.getMessage());
+		}
+		catch(IllegalArgumentException iae)
+		{
+			System.err.println("The file should contain a rectangular numeric array with at least two columns"
+				+ " and as many rows as columns, and the port and shard settings should be non-negative integers.");
+		}
+	}
+}
@@ -0,0 +1,462 @@
+//SocketTransport.java
+/**
+ * Reach the shards of a distributed training over plain sockets.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * The coordinator opens one connection to each worker
+ * and keeps it for the whole training. Every request is a
+ * command byte followed by its arguments, and every reply
+ * starts with a status byte; a failed request is answered
+ * with its error message, which the coordinator throws as
+ * an IOException. Numbers are written big-endian with
+ * DataOutputStream, and the weights and partial sums are
+ * written as flat arrays of doubles. Array lengths sent
+ * by the other side are checked against the columns and
+ * nodes already known before anything is allocated.
+ * serve() runs the worker side, one coordinator at a
+ * time, on the loopback interface unless given another
+ * address.
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+public class SocketTransport implements Transport
+{
+	// Commands sent by the coordinator
+	private static final byte STATS = 1;
+	private static final byte SCALING = 2;
+	private static final byte SAMPLE = 3;
+	private static final byte EPOCH = 4;
+	private static final byte CLOSE = 5;
+	// Status of a reply
+	private static final byte OK = 0;
+	private static final byte ERROR = 1;
+	// Largest number of columns or nodes accepted from the other side
+	private static final int MAX_SIZE = 1 << 20;
+
+	// Addresses of the workers
+	private final List <InetSocketAddress> workers;
+	// Open connections
+	private final List <Socket> sockets = new ArrayList <>();
+
+
+	/**
+	 * Constructor for the SocketTransport.
+	 *
+	 * @param workers The addresses of the workers
+	 *
+	 * */
+	public SocketTransport(List <InetSocketAddress> workers)
+	{
+		if(workers.isEmpty())
+		{
+			throw new IllegalArgumentException();
+		}
+		this.workers = new ArrayList <>(workers);
+	}
+
+
+	/**
+	 * Parse worker addresses.
+	 *
+	 * @param addresses Addresses such as "localhost:9001"
+	 *
+	 * @return The addresses
+	 *
+	 * */
+	public static List <InetSocketAddress> parse(String ... addresses)
+	{
+		List <InetSocketAddress> result = new ArrayList <>();
+		for(String address : addresses)
+		{
+			int colon = address.lastIndexOf(':');
+			if(colon <= 0)
+			{
+				throw new IllegalArgumentException("Expected host:port, not " + address);
+			}
+			result.add(new InetSocketAddress(address.substring(0, colon),
+				Integer.parseInt(address.substring(colon + 1))));
+		}
+		return result;
+	}
+
+
+	/**
+	 * Open a connection to every worker.
+	 *
+	 * @return One handle for each worker
+	 *
+	 * */
+	public synchronized List <Shard> connect() throws IOException
+	{
+		List <Shard> shards = new ArrayList <>();
+		try
+		{
+			for(InetSocketAddress address : this.workers)
+			{
+				Socket socket = new Socket();
+				this.sockets.add(socket);
+				socket.setTcpNoDelay(true);
+				socket.connect(address);
+				shards.add(new RemoteShard(socket));
+			}
+		}
+		catch(IOException ioe)
+		{
+			close();
+			throw ioe;
+		}
+		return shards;
+	}
+
+
+	/**
+	 * Tell the workers the training is over and
+	 * close the connections.
+	 *
+	 * */
+	public synchronized void close()
+	{
+		for(Socket socket : this.sockets)
+		{
+			try
+			{
+				if(socket.isConnected() && !socket.isClosed())
+				{
+					DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+					out.writeByte(CLOSE);
+					out.flush();
+				}
+				socket.close();
+			}
+			catch(IOException ioe)
+			{
+				// The worker may already be gone
+			}
+		}
+		this.sockets.clear();
+	}
+
+
+	/**
+	 * A shard reached through a socket.
+	 *
+	 * */
+	private static final class RemoteShard implements Shard
+	{
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		// Columns of the shard, or -1 until the worker reports them
+		private int columns = -1;
+
+		RemoteShard(Socket socket) throws IOException
+		{
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+		}
+
+		public ShardWorker.Stats stats() throws IOException
+		{
+			this.out.writeByte(STATS);
+			this.out.flush();
+			readStatus();
+			long rows = this.in.readLong();
+			int columns = this.in.readInt();
+			if(columns <= 0 || columns > MAX_SIZE)
+			{
+				throw new IOException("Invalid number of columns " + columns);
+			}
+			this.columns = columns;
+			return new ShardWorker.Stats(rows, readDoubles(this.in, columns), readDoubles(this.in, columns));
+		}
+
+		public void setScaling(double [] center, double [] scale) throws IOException
+		{
+			this.out.writeByte(SCALING);
+			this.out.writeInt(center.length);
+			writeDoubles(this.out, center);
+			writeDoubles(this.out, scale);
+			this.out.flush();
+			readStatus();
+			this.columns = center.length;
+		}
+
+		public double [][] sample(int count, long seed) throws IOException
+		{
+			this.out.writeByte(SAMPLE);
+			this.out.writeInt(count);
+			this.out.writeLong(seed);
+			this.out.flush();
+			readStatus();
+			int rows = this.in.readInt();
+			int columns = this.in.readInt();
+			if(rows < 0 || rows > count || columns != this.columns)
+			{
+				throw new IOException("Invalid sample of " + rows + " rows and " + columns + " columns");
+			}
+			double [][] result = new double[rows][];
+			for(int i = 0; i < rows; i++)
+			{
+				result[i] = readDoubles(this.in, columns);
+			}
+			return result;
+		}
+
+		public ShardWorker.Partial epoch(int xDim, int yDim, double [] weights) throws IOException
+		{
+			this.out.writeByte(EPOCH);
+			this.out.writeInt(xDim);
+			this.out.writeInt(yDim);
+			this.out.writeInt(weights.length);
+			writeDoubles(this.out, weights);
+			this.out.flush();
+			readStatus();
+			long rows = this.in.readLong();
+			double distanceSum = this.in.readDouble();
+			int nodes = xDim * yDim;
+			long [] counts = new long[nodes];
+			for(int j = 0; j < nodes; j++)
+			{
+				counts[j] = this.in.readLong();
+			}
+			return new ShardWorker.Partial(rows, distanceSum, counts, readDoubles(this.in, weights.length));
+		}
+
+		private void readStatus() throws IOException
+		{
+			if(this.in.readByte() != OK)
+			{
+				throw new IOException("Worker failed: " + this.in.readUTF());
+			}
+		}
+	}
+
+
+	/**
+	 * Serve a worker's shard to coordinators on the same
+	 * machine until the process is stopped.
+	 *
+	 * @param worker The worker
+	 * @param port The port to listen on
+	 *
+	 * */
+	public static void serve(ShardWorker worker, int port) throws IOException
+	{
+		serve(worker, port, InetAddress.getLoopbackAddress());
+	}
+
+
+	/**
+	 * Serve a worker's shard to coordinators until the
+	 * process is stopped. Coordinators are served one at
+	 * a time, each until it closes its connection.
+	 *
+	 * @param worker The worker
+	 * @param port The port to listen on
+	 * @param address The local address to listen on, such as
+	 * the loopback address or the one the coordinator reaches
+	 *
+	 * */
+	public static void serve(ShardWorker worker, int port, InetAddress address) throws IOException
+	{
+		ServerSocket server = new ServerSocket(port, 0, address);
+		try
+		{
+			while(true)
+			{
+				Socket socket = server.accept();
+				try
+				{
+					socket.setTcpNoDelay(true);
+					handle(worker, socket);
+				}
+				catch(IOException ioe)
+				{
+					System.err.println("Connection lost: " + ioe.getMessage());
+				}
+				finally
+				{
+					socket.close();
+				}
+			}
+		}
+		finally
+		{
+			server.close();
+		}
+	}
+
+
+	/**
+	 * Answer the requests of one coordinator.
+	 *
+	 * @param worker The worker
+	 * @param socket The connection to the coordinator
+	 *
+	 * */
+	private static void handle(ShardWorker worker, Socket socket) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+		int shardColumns = worker.getData().getColumns();
+		while(true)
+		{
+			byte command;
+			try
+			{
+				command = in.readByte();
+			}
+			catch(EOFException eofe)
+			{
+				return;
+			}
+			if(command == CLOSE)
+			{
+				return;
+			}
+			// Read the whole request before answering so a failure
+			// does not leave its arguments in the stream
+			int columns;
+			double [] center = null;
+			double [] scale = null;
+			int count = 0;
+			long seed = 0;
+			int xDim = 0;
+			int yDim = 0;
+			double [] weights = null;
+			switch(command)
+			{
+				case SCALING:
+					columns = in.readInt();
+					if(columns != shardColumns)
+					{
+						throw new IOException("Expected " + shardColumns + " columns, not " + columns);
+					}
+					center = readDoubles(in, columns);
+					scale = readDoubles(in, columns);
+					break;
+				case SAMPLE:
+					count = in.readInt();
+					seed = in.readLong();
+					if(count < 0)
+					{
+						throw new IOException("Negative sample size " + count);
+					}
+					break;
+				case EPOCH:
+					xDim = in.readInt();
+					yDim = in.readInt();
+					int length = in.readInt();
+					if(xDim <= 0 || yDim <= 0 || (long)xDim * yDim > MAX_SIZE
+						|| length != (long)xDim * yDim * shardColumns)
+					{
+						throw new IOException("Invalid map of " + xDim + "x" + yDim + " nodes and " + length + " weights");
+					}
+					weights = readDoubles(in, length);
+					break;
+				case STATS:
+					break;
+				default:
+					throw new IOException("Unknown command " + command);
+			}
+			try
+			{
+				switch(command)
+				{
+					case STATS:
+						ShardWorker.Stats stats = worker.stats();
+						out.writeByte(OK);
+						out.writeLong(stats.getRows());
+						out.writeInt(stats.getColumns());
+						for(int k = 0; k < stats.getColumns(); k++)
+						{
+							out.writeDouble(stats.getMean(k));
+						}
+						for(int k = 0; k < stats.getColumns(); k++)
+						{
+							out.writeDouble(stats.getSumSquares(k));
+						}
+						break;
+					case SCALING:
+						worker.setScaling(center, scale);
+						out.writeByte(OK);
+						break;
+					case SAMPLE:
+						double [][] rows = worker.sample(count, seed);
+						out.writeByte(OK);
+						out.writeInt(rows.length);
+						out.writeInt(worker.getData().getColumns());
+						for(double [] row : rows)
+						{
+							writeDoubles(out, row);
+						}
+						break;
+					default:
+						ShardWorker.Partial partial = worker.epoch(xDim, yDim, weights);
+						out.writeByte(OK);
+						out.writeLong(partial.getRows());
+						out.writeDouble(partial.getDistanceSum());
+						for(int j = 0; j < partial.getNodes(); j++)
+						{
+							out.writeLong(partial.getCount(j));
+						}
+						for(int i = 0; i < weights.length; i++)
+						{
+							out.writeDouble(partial.getSum(i));
+						}
+						break;
+				}
+			}
+			catch(RuntimeException re)
+			{
+				out.writeByte(ERROR);
+				out.writeUTF(String.valueOf(re.getMessage()));
+			}
+			out.flush();
+		}
+	}
+
+
+	private static double [] readDoubles(DataInputStream in, int length) throws IOException
+	{
+		if(length < 0)
+		{
+			throw new IOException("Negative array length");
+		}
+		double [] result = new double[length];
+		for(int i = 0; i < length; i++)
+		{
+			result[i] = in.readDouble();
+		}
+		return result;
+	}
+
+
+	private static void writeDoubles(DataOutputStream out, double [] values) throws IOException
+	{
+		for(int i = 0; i < values.length; i++)
+		{
+			out.writeDouble(values[i]);
+		}
+	}
+}
@@ -0,0 +1,472 @@
+//SparseDataset.java
+/**
+ * Immutable representation of a sparse training dataset.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * A SparseDataset stores data where most values are zero,
+ * such as bag-of-words or one-hot features, in compressed
+ * sparse row (CSR) form: only the nonzero values and their
+ * column positions are kept. The squared norm of every row
+ * is cached so that a SOM can find distances to its nodes
+ * from the nonzero values alone. Like a Dataset, it is
+ * never modified after construction. Unlike a Dataset,
+ * it may have more columns than rows.
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.util.*;
+public class SparseDataset
+{
+	// Position of the first value of each row, plus the total count
+	private final int [] rowPtr;
+	// Column of each nonzero value, ascending within each row
+	private final int [] colIdx;
+	// The nonzero values
+	private final double [] values;
+	// Number of columns
+	private final int columns;
+	// Squared Euclidean norm of each row
+	private final double [] rowNormSq;
+	// Column scales if this is a scaled view
+	private final double [] scale;
+	// Cached scaled view of this SparseDataset
+	private SparseDataset scaledView;
+
+
+	/**
+	 * Builder that collects the rows of a SparseDataset.
+	 *
+	 * */
+	public static final class Builder
+	{
+		private final int columns;
+		private int [] rowPtr = new int[16];
+		private int [] colIdx = new int[64];
+		private double [] values = new double[64];
+		private int rows = 0;
+		private int count = 0;
+
+		/**
+		 * Constructor for the Builder.
+		 *
+		 * @param columns The number of columns
+		 *
+		 * */
+		public Builder(int columns)
+		{
+			if(columns < 2)
+			{
+				throw new IllegalArgumentException();
+			}
+			this.columns = columns;
+		}
+
+		/**
+		 * Add a row from its nonzero values.
+		 * Zeros in the values are dropped.
+		 *
+		 * @param indices The columns of the values, without repeats
+		 * @param rowValues The values
+		 *
+		 * @return This Builder
+		 *
+		 * */
+		public Builder addRow(int [] indices, double [] rowValues)
+		{
+			if(indices.length != rowValues.length)
+			{
+				throw new IllegalArgumentException();
+			}
+			// Sort the entries by column
+			Integer [] order = new Integer[indices.length];
+			for(int i = 0; i < order.length; i++)
+			{
+				order[i] = i;
+			}
+			final int [] idx = indices;
+			Arrays.sort(order, new Comparator<Integer>()
+			{
+				public int compare(Integer a, Integer b)
+				{
+					return Integer.compare(idx[a], idx[b]);
+				}
+			});
+			ensureCapacity(count + indices.length);
+			int previous = -1;
+			for(int i = 0; i < order.length; i++)
+			{
+				int column = indices[order[i]];
+				if(column < 0 || column >= columns || column == previous)
+				{
+					throw new IllegalArgumentException();
+				}
+				previous = column;
+				if(rowValues[order[i]] != 0)
+				{
+					colIdx[count] = column;
+					values[count] = rowValues[order[i]];
+					count++;
+				}
+			}
+			if(rows + 2 > rowPtr.length)
+			{
+				rowPtr = Arrays.copyOf(rowPtr, rowPtr.length * 2);
+			}
+			rows++;
+			rowPtr[rows] = count;
+			return this;
+		}
+
+		/**
+		 * Add a row from its dense values.
+		 *
+		 * @param row The values of every column
+		 *
+		 * @return This Builder
+		 *
+		 * */
+		public Builder addDenseRow(double [] row)
+		{
+			if(row.length != columns)
+			{
+				throw new IllegalArgumentException();
+			}
+			int nonZeros = 0;
+			for(int i = 0; i < row.length; i++)
+			{
+				if(row[i] != 0)
+				{
+					nonZeros++;
+				}
+			}
+			int [] indices = new int[nonZeros];
+			double [] rowValues = new double[nonZeros];
+			nonZeros = 0;
+			for(int i = 0; i < row.length; i++)
+			{
+				if(row[i] != 0)
+				{
+					indices[nonZeros] = i;
+					rowValues[nonZeros] = row[i];
+					nonZeros++;
+				}
+			}
+			return addRow(indices, rowValues);
+		}
+
+		/**
+		 * Create the SparseDataset. There must
+		 * be at least two rows.
+		 *
+		 * @return The SparseDataset
+		 *
+		 * */
+		public SparseDataset build()
+		{
+			if(rows < 2)
+			{
+				throw new IllegalArgumentException();
+			}
+			return new SparseDataset(Arrays.copyOf(rowPtr, rows + 1), Arrays.copyOf(colIdx, count),
+				Arrays.copyOf(values, count), columns, null);
+		}
+
+		private void ensureCapacity(int size)
+		{
+			if(size > colIdx.length)
+			{
+				int capacity = Math.max(size, colIdx.length * 2);
+				colIdx = Arrays.copyOf(colIdx, capacity);
+				values = Arrays.copyOf(values, capacity);
+			}
+		}
+	}
+
+
+	private SparseDataset(int [] rowPtr, int [] colIdx, double [] values, int columns, double [] scale)
+	{
+		this.rowPtr = rowPtr;
+		this.colIdx = colIdx;
+		this.values = values;
+		this.columns = columns;
+		this.scale = scale;
+		int rows = rowPtr.length - 1;
+		this.rowNormSq = new double[rows];
+		for(int i = 0; i < rows; i++)
+		{
+			double sum = 0;
+			for(int p = rowPtr[i]; p < rowPtr[i + 1]; p++)
+			{
+				sum += values[p] * values[p];
+			}
+			this.rowNormSq[i] = sum;
+		}
+	}
+
+
+	/**
+	 * Create a SparseDataset from a dense array.
+	 *
+	 * @param matrix The input array, which must
+	 * not be jagged
+	 *
+	 * @return A SparseDataset with the nonzero values
+	 * of the array
+	 *
+	 * */
+	public static SparseDataset fromDense(double [][] matrix)
+	{
+		Builder builder = new Builder(matrix[0].length);
+		for(int i = 0; i < matrix.length; i++)
+		{
+			builder.addDenseRow(matrix[i]);
+		}
+		return builder.build();
+	}
+
+
+	/**
+	 * Getter method for the number of rows.
+	 *
+	 * @return The number of rows
+	 *
+	 * */
+	public int getRows()
+	{
+		return this.rowPtr.length - 1;
+	}
+
+
+	/**
+	 * Getter method for the number of columns.
+	 *
+	 * @return The number of columns
+	 *
+	 * */
+	public int getColumns()
+	{
+		return this.columns;
+	}
+
+
+	/**
+	 * Getter method for the number of nonzero values.
+	 *
+	 * @return The number of nonzero values
+	 *
+	 * */
+	public int getNonZeros()
+	{
+		return this.values.length;
+	}
+
+
+	/**
+	 * Calculate the proportion of zeros in the data.
+	 *
+	 * @return The proportion of values that are zero
+	 *
+	 * */
+	public double sparsity()
+	{
+		return 1 - (double)this.values.length / ((double)getRows() * this.columns);
+	}
+
+
+	/**
+	 * Extract the data for a given row and column.
+	 *
+	 * @param row The row position
+	 * @param column The column position
+	 *
+	 * @return The value at the row and column position
+	 *
+	 * */
+	public double get(int row, int column)
+	{
+		int p = Arrays.binarySearch(this.colIdx, this.rowPtr[row], this.rowPtr[row + 1], column);
+		return p < 0 ? 0 : this.values[p];
+	}
+
+
+	/**
+	 * Whether this SparseDataset is a scaled view.
+	 *
+	 * @return Whether the columns have been scaled
+	 *
+	 * */
+	public boolean isScaled()
+	{
+		return this.scale != null;
+	}
+
+
+	/**
+	 * Getter method for a column scale.
+	 *
+	 * @param column The column position
+	 *
+	 * @return The value the column was divided by
+	 * when scaling, or one if this is not a scaled view
+	 *
+	 * */
+	public double getScale(int column)
+	{
+		return this.scale == null ? 1 : this.scale[column];
+	}
+
+
+	/**
+	 * Scale the values while preserving sparsity.
+	 * Centering the columns would turn every zero into
+	 * a nonzero value, so each column is only divided by
+	 * its standard deviation (counting the zeros), giving
+	 * it unit variance. Columns with zero variance are
+	 * left as they are. The scaled view is computed the
+	 * first time it is requested and shared afterwards.
+	 *
+	 * @return The scaled view of this SparseDataset
+	 *
+	 * */
+	public synchronized SparseDataset scaled()
+	{
+		if(isScaled())
+		{
+			return this;
+		}
+		if(this.scaledView != null)
+		{
+			return this.scaledView;
+		}
+		int rows = getRows();
+		double [] sum = new double[this.columns];
+		double [] sumSq = new double[this.columns];
+		for(int p = 0; p < this.values.length; p++)
+		{
+			sum[this.colIdx[p]] += this.values[p];
+			sumSq[this.colIdx[p]] += this.values[p] * this.values[p];
+		}
+		double [] colSd = new double[this.columns];
+		for(int j = 0; j < this.columns; j++)
+		{
+			double mean = sum[j] / rows;
+			double variance = sumSq[j] / rows - mean * mean;
+			colSd[j] = variance > 0 ? Math.sqrt(variance) : 1;
+		}
+		double [] scaledValues = new double[this.values.length];
+		for(int p = 0; p < this.values.length; p++)
+		{
+			scaledValues[p] = this.values[p] / colSd[this.colIdx[p]];
+		}
+		// The structure of the rows is shared with this SparseDataset
+		this.scaledView = new SparseDataset(this.rowPtr, this.colIdx, scaledValues, this.columns, colSd);
+		return this.scaledView;
+	}
+
+
+	/**
+	 * Copy a row into a dense array.
+	 *
+	 * @param row The row position
+	 *
+	 * @return The values of every column in the row
+	 *
+	 * */
+	public double [] denseRow(int row)
+	{
+		double [] result = new double[this.columns];
+		for(int p = this.rowPtr[row]; p < this.rowPtr[row + 1]; p++)
+		{
+			result[this.colIdx[p]] = this.values[p];
+		}
+		return result;
+	}
+
+
+	/**
+	 * Position of the first value of a row
+	 * in the arrays from indices() and values().
+	 *
+	 * @param row The row position
+	 *
+	 * @return The position of the first value
+	 *
+	 * */
+	int rowStart(int row)
+	{
+		return this.rowPtr[row];
+	}
+
+
+	/**
+	 * Position after the last value of a row
+	 * in the arrays from indices() and values().
+	 *
+	 * @param row The row position
+	 *
+	 * @return One past the position of the last value
+	 *
+	 * */
+	int rowEnd(int row)
+	{
+		return this.rowPtr[row + 1];
+	}
+
+
+	/**
+	 * The columns of the nonzero values. Only used by
+	 * trusted code in this package that does not modify it.
+	 *
+	 * @return The column of each nonzero value
+	 *
+	 * */
+	int [] indices()
+	{
+		return this.colIdx;
+	}
+
+
+	/**
+	 * The nonzero values. Only used by trusted code
+	 * in this package that does not modify it.
+	 *
+	 * @return The nonzero values
+	 *
+	 * */
+	double [] values()
+	{
+		return this.values;
+	}
+
+
+	/**
+	 * The squared norm of a row.
+	 *
+	 * @param row The row position
+	 *
+	 * @return The sum of the squared values in the row
+	 *
+	 * */
+	double rowNormSq(int row)
+	{
+		return this.rowNormSq[row];
+	}
+}
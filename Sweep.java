@@ -0,0 +1,421 @@
+//Sweep.java
+/**
+ * Train many self-organizing maps on one dataset.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * This class runs a hyperparameter sweep over
+ * map dimensions and training epochs. The data
+ * are scaled once and the same scaled Dataset is shared
+ * read-only by every SOM, which are trained concurrently
+ * on a work-stealing pool. The quantization and
+ * topographic errors of each configuration are recorded,
+ * and the model that is best by a criterion the caller
+ * chooses is kept. The quantization error alone always
+ * favors the largest map, so the default criterion adds
+ * the topographic error to it. Usage:
+ *
+ * java Sweep data.csv xDims yDims epochs [threads] [qe|te|weight]
+ *
+ * where xDims, yDims and epochs are comma separated lists
+ * of values, e.g. "java Sweep data.csv 4,6,8 4,6,8 10,20",
+ * and the last argument picks the best model by the lowest
+ * quantization error, the lowest topographic error, or the
+ * lowest quantization error plus weight times the
+ * topographic error (1 by default).
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+public class Sweep
+{
+	// The scaled data shared by all the maps
+	private Dataset data;
+	// The configurations to train
+	private List <int[]> configs = new ArrayList <>();
+	// Orders the results from best to worst
+	private Comparator <Result> criterion = combined(1);
+	// The best map found so far and its result
+	private SOM best;
+	private Result bestResult;
+
+
+	/**
+	 * Result of training one configuration.
+	 *
+	 * */
+	public static class Result
+	{
+		private final int xDim;
+		private final int yDim;
+		private final int epochs;
+		private final double quantizationError;
+		private final double topographicError;
+		private final long nanos;
+
+		Result(int xDim, int yDim, int epochs, double quantizationError, double topographicError, long nanos)
+		{
+			this.xDim = xDim;
+			this.yDim = yDim;
+			this.epochs = epochs;
+			this.quantizationError = quantizationError;
+			this.topographicError = topographicError;
+			this.nanos = nanos;
+		}
+
+		public int getXDim()
+		{
+			return this.xDim;
+		}
+
+		public int getYDim()
+		{
+			return this.yDim;
+		}
+
+		public int getEpochs()
+		{
+			return this.epochs;
+		}
+
+		public double getQuantizationError()
+		{
+			return this.quantizationError;
+		}
+
+		public double getTopographicError()
+		{
+			return this.topographicError;
+		}
+
+		public long getNanos()
+		{
+			return this.nanos;
+		}
+
+		public String toString()
+		{
+			return String.format("%4d x %-4d %6d epochs   QE %.4f   TE %.4f   %10.1f ms",
+				xDim, yDim, epochs, quantizationError, topographicError, nanos / 1e6);
+		}
+	}
+
+
+	/** Prefers the lower quantization error, which always favors larger maps */
+	public static final Comparator <Result> QUANTIZATION_ERROR = new Comparator <Result>()
+	{
+		public int compare(Result a, Result b)
+		{
+			return Double.compare(a.getQuantizationError(), b.getQuantizationError());
+		}
+	};
+
+	/** Prefers the lower topographic error */
+	public static final Comparator <Result> TOPOGRAPHIC_ERROR = new Comparator <Result>()
+	{
+		public int compare(Result a, Result b)
+		{
+			return Double.compare(a.getTopographicError(), b.getTopographicError());
+		}
+	};
+
+
+	/**
+	 * A criterion that combines both errors.
+	 *
+	 * @param weight The weight of the topographic error
+	 *
+	 * @return A criterion that prefers the lower quantization
+	 * error plus weight times the topographic error
+	 *
+	 * */
+	public static Comparator <Result> combined(final double weight)
+	{
+		if(!(weight >= 0))
+		{
+			throw new IllegalArgumentException();
+		}
+		return new Comparator <Result>()
+		{
+			public int compare(Result a, Result b)
+			{
+				return Double.compare(a.getQuantizationError() + weight * a.getTopographicError(),
+					b.getQuantizationError() + weight * b.getTopographicError());
+			}
+		};
+	}
+
+
+	/**
+	 * Constructor for the sweep.
+	 * The data are scaled once, or the existing
+	 * scaled view of the Dataset is reused.
+	 *
+	 * @param data The training data
+	 *
+	 * */
+	public Sweep(Dataset data)
+	{
+		this.data = data.scaled();
+	}
+
+
+	/**
+	 * Constructor for array data.
+	 * The rows of the array are used by reference and
+	 * never modified; only the scaled view shared by the
+	 * models is a copy. The caller must not modify the
+	 * rows while the sweep is in use.
+	 *
+	 * @param matrix The training data. It must satisfy
+	 * the same requirements as a Grid object.
+	 *
+	 * */
+	public Sweep(double [][] matrix)
+	{
+		this(Dataset.wrap(matrix));
+	}
+
+
+	/**
+	 * Setter method for criterion.
+	 *
+	 * @param criterion Orders the results from best to worst,
+	 * such as QUANTIZATION_ERROR, TOPOGRAPHIC_ERROR or
+	 * combined(weight). The default is combined(1).
+	 *
+	 * */
+	public synchronized void setCriterion(Comparator <Result> criterion)
+	{
+		if(criterion == null)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.criterion = criterion;
+	}
+
+
+	/**
+	 * Add a configuration to the sweep.
+	 *
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 * @param epochs The number of training rounds
+	 *
+	 * */
+	public void addConfig(int xDim, int yDim, int epochs)
+	{
+		if(xDim <= 0 || yDim <= 0 || epochs <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		configs.add(new int[]{xDim, yDim, epochs});
+	}
+
+
+	/**
+	 * Add every combination of the given values
+	 * to the sweep.
+	 *
+	 * @param xDims The X dimensions to try
+	 * @param yDims The Y dimensions to try
+	 * @param epochs The numbers of training rounds to try
+	 *
+	 * */
+	public void addGrid(int [] xDims, int [] yDims, int [] epochs)
+	{
+		for(int x : xDims)
+		{
+			for(int y : yDims)
+			{
+				for(int e : epochs)
+				{
+					addConfig(x, y, e);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Train every configuration in the sweep.
+	 * Larger maps take longer to train, so the
+	 * tasks are run on a work-stealing pool to keep
+	 * all the threads busy.
+	 *
+	 * @param threads The number of concurrent trainings
+	 *
+	 * @return The results in the order the
+	 * configurations were added
+	 *
+	 * */
+	public List <Result> run(int threads)
+	{
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		List <Future<Result>> tasks = new ArrayList <>();
+		try
+		{
+			for(final int [] config : configs)
+			{
+				tasks.add(pool.submit(new Callable<Result>()
+				{
+					public Result call()
+					{
+						return train(config[0], config[1], config[2]);
+					}
+				}));
+			}
+			List <Result> results = new ArrayList <>();
+			for(Future<Result> task : tasks)
+			{
+				results.add(task.get());
+			}
+			return results;
+		}
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Sweep was interrupted", ie);
+		}
+		catch(ExecutionException ee)
+		{
+			throw new IllegalStateException("Sweep failed", ee.getCause());
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * Getter method for the best map.
+	 *
+	 * @return The trained map that is best by the criterion,
+	 * or null if the sweep has not been run
+	 *
+	 * */
+	public synchronized SOM getBest()
+	{
+		return this.best;
+	}
+
+
+	/**
+	 * Train and evaluate one configuration.
+	 *
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 * @param epochs The number of training rounds
+	 *
+	 * @return The result for the configuration
+	 *
+	 * */
+	private Result train(int xDim, int yDim, int epochs)
+	{
+		long start = System.nanoTime();
+		SOM som = new SOM(data, xDim, yDim, epochs);
+		som.train();
+		long nanos = System.nanoTime() - start;
+		Result result = new Result(xDim, yDim, epochs, som.quantizationError(), som.topographicError(), nanos);
+		// Only keep the best model so the others can be collected
+		synchronized(this)
+		{
+			if(best == null || criterion.compare(result, bestResult) < 0)
+			{
+				best = som;
+				bestResult = result;
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * Parse a comma separated list of integers.
+	 *
+	 * @param input The list to parse
+	 *
+	 * @return The parsed values
+	 *
+	 * */
+	private static int [] parseList(String input)
+	{
+		String [] values = input.split(",");
+		int [] result = new int[values.length];
+		for(int i = 0; i < values.length; i++)
+		{
+			result[i] = Integer.parseInt(values[i].trim());
+		}
+		return result;
+	}
+
+
+	// Main method
+	public static void main(String [] args)
+	{
+		if(args.length < 4)
+		{
+			System.err.println("Usage: java Sweep data.csv xDims yDims epochs [threads] [qe|te|weight]");
+			return;
+		}
+		try
+		{
+			Sweep sweep = new Sweep(Dataset.readCsv(args[0]));
+			sweep.addGrid(parseList(args[1]), parseList(args[2]), parseList(args[3]));
+			int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+			String criterion = args.length > 5 ? args[5] : "1";
+			if(criterion.equals("qe"))
+			{
+				sweep.setCriterion(QUANTIZATION_ERROR);
+				criterion = "lowest QE";
+			}
+			else if(criterion.equals("te"))
+			{
+				sweep.setCriterion(TOPOGRAPHIC_ERROR);
+				criterion = "lowest TE";
+			}
+			else
+			{
+				sweep.setCriterion(combined(Double.parseDouble(criterion)));
+				criterion = "lowest QE + " + criterion + " x TE";
+			}
+			for(Result result : sweep.run(threads))
+			{
+				System.out.println(result);
+			}
+			SOM best = sweep.getBest();
+			System.out.println("Best by " + criterion + ": " + best.getXDim() + " x " + best.getYDim() + ", "
+				+ best.getEpochs() + " epochs");
+		}
+		catch(IOException ioe)
+		{
+			System.err.println("Cannot read file: " + ioe.getMessage());
+		}
+		catch(IllegalArgumentException iae)
+		{
+			System.err.println("The file should contain a rectangular numeric array with at least two columns"
+				+ " and as many rows as columns, the lists should contain positive integers and the criterion"
+				+ " should be qe, te or a non-negative weight.");
+		}
+	}
+}
@@ -0,0 +1,568 @@
+//Topology.java
+/**
+ * Distances between the nodes of a map.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * Node j of a map sits in column x = j / yDim and row
+ * y = j % yDim. Distances are whole numbers of steps,
+ * calculated on demand from these positions, so no
+ * structure grows with the square of the number of nodes:
+ * the statistics of all the pair distances used by the
+ * neighborhood schedule come from the number of pairs at
+ * each offset, and the optional cache holds one distance
+ * per offset rather than per pair.
+ *
+ * On a hexagonal map the odd rows are shifted half a node
+ * to the right, so every node has six neighbors. A
+ * toroidal map wraps around at its edges, so it has no
+ * border nodes; a toroidal hexagonal map needs an even
+ * number of rows.
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+public class Topology
+{
+	/**
+	 * The shape of a map and how distances
+	 * on it are measured.
+	 *
+	 * */
+	public enum Layout
+	{
+		/**
+		 * Square nodes, with the distance the number of
+		 * horizontal and vertical steps between them. This
+		 * is the default.
+		 *
+		 * */
+		RECTANGULAR_MANHATTAN,
+
+		/**
+		 * Square nodes, where a diagonal step also counts
+		 * as one step.
+		 *
+		 * */
+		RECTANGULAR_CHEBYSHEV,
+
+		/**
+		 * Hexagonal nodes, with the distance the number of
+		 * steps between neighboring hexagons.
+		 *
+		 * */
+		HEXAGONAL
+	}
+
+	// X dimension of the map
+	private final int xDim;
+	// Y dimension of the map
+	private final int yDim;
+	// Shape of the map
+	private final Layout layout;
+	// Whether the map wraps around at its edges
+	private final boolean toroidal;
+	// Largest distance between two nodes
+	private final int maxDistance;
+	// Variance of the distances between all ordered pairs of nodes
+	private final double variance;
+	// Distance for each row parity and offset, or null if not cached
+	private final int [] table;
+
+
+	/**
+	 * Constructor for a rectangular map with
+	 * Manhattan distances and edges.
+	 *
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 *
+	 * */
+	public Topology(int xDim, int yDim)
+	{
+		this(xDim, yDim, Layout.RECTANGULAR_MANHATTAN, false);
+	}
+
+
+	/**
+	 * Constructor for the Topology.
+	 *
+	 * @param xDim The X dimension of the map
+	 * @param yDim The Y dimension of the map
+	 * @param layout The shape of the map
+	 * @param toroidal Whether the map wraps around at its edges
+	 *
+	 * */
+	public Topology(int xDim, int yDim, Layout layout, boolean toroidal)
+	{
+		this(xDim, yDim, layout, toroidal, false);
+	}
+
+
+	private Topology(int xDim, int yDim, Layout layout, boolean toroidal, boolean cache)
+	{
+		if(xDim <= 0 || yDim <= 0 || layout == null)
+		{
+			throw new IllegalArgumentException();
+		}
+		// Wrapping a hexagonal map must keep the parity of the rows
+		if(toroidal && layout == Layout.HEXAGONAL && yDim % 2 != 0)
+		{
+			throw new IllegalArgumentException("A toroidal hexagonal map needs an even Y dimension");
+		}
+		this.xDim = xDim;
+		this.yDim = yDim;
+		this.layout = layout;
+		this.toroidal = toroidal;
+
+		// Distances only depend on the offset between two nodes and
+		// the parity of the first node's row, so the pairs are counted
+		// by offset with one representative pair for each
+		int [] cached = cache ? new int[2 * xSpan() * ySpan()] : null;
+		int max = 0;
+		double pairs = 0;
+		double sum = 0;
+		double sumSquares = 0;
+		for(int p = 0; p < 2; p++)
+		{
+			for(int dx = xFirst(); dx < xFirst() + xSpan(); dx++)
+			{
+				for(int dy = yFirst(); dy < yFirst() + ySpan(); dy++)
+				{
+					int d = toroidal ? measure(0, p, dx, (p + dy) % yDim) : measure(0, p, dx, p + dy);
+					if(cached != null)
+					{
+						cached[offset(p, dx, dy)] = d;
+					}
+					double count = toroidal ? (double)xDim * parityCount(0, yDim, p)
+						: (double)(xDim - Math.abs(dx)) * parityCount(Math.max(0, -dy), Math.min(yDim, yDim - dy), p);
+					if(count > 0)
+					{
+						max = Math.max(max, d);
+						pairs += count;
+						sum += count * d;
+						sumSquares += count * d * d;
+					}
+				}
+			}
+		}
+		this.table = cached;
+		this.maxDistance = max;
+		double mean = sum / pairs;
+		this.variance = sumSquares / pairs - mean * mean;
+	}
+
+
+	/**
+	 * A copy of this Topology that looks distances
+	 * up in a table with one entry for each offset
+	 * between two nodes, about eight times the
+	 * number of nodes.
+	 *
+	 * @return The cached Topology
+	 *
+	 * */
+	public Topology cached()
+	{
+		return this.table != null ? this : new Topology(this.xDim, this.yDim, this.layout, this.toroidal, true);
+	}
+
+
+	/**
+	 * Getter method for xDim.
+	 *
+	 * @return The X dimension of the map
+	 *
+	 * */
+	public int getXDim()
+	{
+		return this.xDim;
+	}
+
+
+	/**
+	 * Getter method for yDim.
+	 *
+	 * @return The Y dimension of the map
+	 *
+	 * */
+	public int getYDim()
+	{
+		return this.yDim;
+	}
+
+
+	/**
+	 * Getter method for layout.
+	 *
+	 * @return The shape of the map
+	 *
+	 * */
+	public Layout getLayout()
+	{
+		return this.layout;
+	}
+
+
+	/**
+	 * Getter method for toroidal.
+	 *
+	 * @return Whether the map wraps around at its edges
+	 *
+	 * */
+	public boolean isToroidal()
+	{
+		return this.toroidal;
+	}
+
+
+	/**
+	 * The number of nodes on the map.
+	 *
+	 * @return The number of nodes
+	 *
+	 * */
+	public int size()
+	{
+		return this.xDim * this.yDim;
+	}
+
+
+	/**
+	 * The largest distance between two nodes.
+	 *
+	 * @return The largest distance on the map
+	 *
+	 * */
+	public int maxDistance()
+	{
+		return this.maxDistance;
+	}
+
+
+	/**
+	 * The variance of the distances between all ordered
+	 * pairs of nodes, including each node with itself.
+	 * The neighborhood schedule starts at 1.75 times
+	 * this variance.
+	 *
+	 * @return The variance of the pair distances
+	 *
+	 * */
+	public double variance()
+	{
+		return this.variance;
+	}
+
+
+	/**
+	 * The distance between two nodes.
+	 *
+	 * @param a The first node
+	 * @param b The second node
+	 *
+	 * @return The number of steps between the nodes
+	 *
+	 * */
+	public int distance(int a, int b)
+	{
+		return distance(a / this.yDim, a % this.yDim, b / this.yDim, b % this.yDim);
+	}
+
+
+	/**
+	 * The distance between two positions on the map,
+	 * from the cache if there is one.
+	 *
+	 * */
+	private int distance(int x1, int y1, int x2, int y2)
+	{
+		if(this.table == null)
+		{
+			return measure(x1, y1, x2, y2);
+		}
+		int dx = x2 - x1;
+		int dy = y2 - y1;
+		if(this.toroidal)
+		{
+			dx = dx < 0 ? dx + this.xDim : dx;
+			dy = dy < 0 ? dy + this.yDim : dy;
+		}
+		return this.table[offset(y1 & 1, dx, dy)];
+	}
+
+
+	/**
+	 * Whether two different nodes touch on the map: for
+	 * square nodes this includes the diagonal neighbors.
+	 *
+	 * @param a The first node
+	 * @param b The second node
+	 *
+	 * @return Whether the nodes are adjacent
+	 *
+	 * */
+	public boolean adjacent(int a, int b)
+	{
+		if(a == b)
+		{
+			return false;
+		}
+		if(this.layout == Layout.HEXAGONAL)
+		{
+			return distance(a, b) == 1;
+		}
+		return axisDistance(a / this.yDim, b / this.yDim, this.xDim) <= 1
+			&& axisDistance(a % this.yDim, b % this.yDim, this.yDim) <= 1;
+	}
+
+
+	/**
+	 * Find the nodes adjacent to a node.
+	 *
+	 * @param node The node
+	 * @param nodes Receives the adjacent nodes; eight
+	 * entries are always enough
+	 *
+	 * @return The number of adjacent nodes
+	 *
+	 * */
+	public int adjacent(int node, int [] nodes)
+	{
+		int count = 0;
+		int x = node / this.yDim;
+		int y = node % this.yDim;
+		int xFrom = firstInReach(x, 1, this.xDim);
+		int xTo = lastInReach(x, 1, this.xDim);
+		int yFrom = firstInReach(y, 1, this.yDim);
+		int yTo = lastInReach(y, 1, this.yDim);
+		for(int i = xFrom; i <= xTo; i++)
+		{
+			int nx = wrap(i, this.xDim);
+			for(int j = yFrom; j <= yTo; j++)
+			{
+				int other = nx * this.yDim + wrap(j, this.yDim);
+				if(adjacent(node, other))
+				{
+					nodes[count++] = other;
+				}
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 * Find the nodes within a distance of a node.
+	 * Only the square of nodes around the node whose sides
+	 * are twice the reach is visited, or the diamond inside
+	 * it for Manhattan distances, so the work depends on the
+	 * reach rather than the size of the map.
+	 *
+	 * @param node The node
+	 * @param reach The largest distance
+	 * @param nodes Receives the nodes within reach,
+	 * including the node itself; size() entries are
+	 * always enough
+	 * @param distances Receives the distance to each of them
+	 *
+	 * @return The number of nodes within reach
+	 *
+	 * */
+	public int neighbors(int node, int reach, int [] nodes, int [] distances)
+	{
+		int count = 0;
+		int x = node / this.yDim;
+		int y = node % this.yDim;
+		int xFrom = firstInReach(x, reach, this.xDim);
+		int xTo = lastInReach(x, reach, this.xDim);
+		boolean manhattan = this.layout == Layout.RECTANGULAR_MANHATTAN;
+		for(int i = xFrom; i <= xTo; i++)
+		{
+			int nx = wrap(i, this.xDim);
+			int yReach = manhattan ? reach - axisDistance(x, nx, this.xDim) : reach;
+			int yFrom = firstInReach(y, yReach, this.yDim);
+			int yTo = lastInReach(y, yReach, this.yDim);
+			for(int j = yFrom; j <= yTo; j++)
+			{
+				int ny = wrap(j, this.yDim);
+				int d = distance(x, y, nx, ny);
+				if(d <= reach)
+				{
+					nodes[count] = nx * this.yDim + ny;
+					distances[count] = d;
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 * The distance between two positions on the map.
+	 *
+	 * @param x1 The column of the first node
+	 * @param y1 The row of the first node
+	 * @param x2 The column of the second node
+	 * @param y2 The row of the second node
+	 *
+	 * @return The number of steps between the nodes
+	 *
+	 * */
+	private int measure(int x1, int y1, int x2, int y2)
+	{
+		if(this.layout == Layout.HEXAGONAL)
+		{
+			if(!this.toroidal)
+			{
+				return hexDistance(x1, y1, x2, y2);
+			}
+			// The nearest of the copies of the second node around the map
+			int best = Integer.MAX_VALUE;
+			for(int kx = -1; kx <= 1; kx++)
+			{
+				for(int ky = -1; ky <= 1; ky++)
+				{
+					best = Math.min(best, hexDistance(x1, y1, x2 + kx * this.xDim, y2 + ky * this.yDim));
+				}
+			}
+			return best;
+		}
+		int dx = axisDistance(x1, x2, this.xDim);
+		int dy = axisDistance(y1, y2, this.yDim);
+		return this.layout == Layout.RECTANGULAR_MANHATTAN ? dx + dy : Math.max(dx, dy);
+	}
+
+
+	/**
+	 * The distance between two positions on a
+	 * hexagonal map without wrapping. The positions
+	 * are converted to axial coordinates.
+	 *
+	 * */
+	private static int hexDistance(int x1, int y1, int x2, int y2)
+	{
+		int dq = (x2 - (y2 - (y2 & 1)) / 2) - (x1 - (y1 - (y1 & 1)) / 2);
+		int dr = y2 - y1;
+		return (Math.abs(dq) + Math.abs(dr) + Math.abs(dq + dr)) / 2;
+	}
+
+
+	/**
+	 * The distance between two positions along one axis.
+	 *
+	 * */
+	private int axisDistance(int a, int b, int n)
+	{
+		int d = Math.abs(a - b);
+		return this.toroidal ? Math.min(d, n - d) : d;
+	}
+
+
+	/**
+	 * The first position along an axis to visit for a
+	 * reach; positions past the edges wrap around on a
+	 * toroidal map.
+	 *
+	 * */
+	private int firstInReach(int position, int reach, int n)
+	{
+		if(this.toroidal)
+		{
+			// Visit every position once if the reach covers the axis
+			return 2 * reach + 1 >= n ? 0 : position - reach;
+		}
+		return Math.max(0, position - reach);
+	}
+
+
+	/**
+	 * The last position along an axis to visit for a reach.
+	 *
+	 * */
+	private int lastInReach(int position, int reach, int n)
+	{
+		if(this.toroidal)
+		{
+			return 2 * reach + 1 >= n ? n - 1 : position + reach;
+		}
+		return Math.min(n - 1, position + reach);
+	}
+
+
+	private static int wrap(int position, int n)
+	{
+		return position < 0 ? position + n : position >= n ? position - n : position;
+	}
+
+
+	/**
+	 * The number of positions in [from, to) with a given
+	 * parity, for 0 <= from.
+	 *
+	 * */
+	private static int parityCount(int from, int to, int parity)
+	{
+		return to <= from ? 0 : (to + 1 - parity) / 2 - (from + 1 - parity) / 2;
+	}
+
+
+	/**
+	 * The smallest offset between two columns; on a toroidal
+	 * map offsets are taken modulo the dimension.
+	 *
+	 * */
+	private int xFirst()
+	{
+		return this.toroidal ? 0 : -(this.xDim - 1);
+	}
+
+
+	private int yFirst()
+	{
+		return this.toroidal ? 0 : -(this.yDim - 1);
+	}
+
+
+	/**
+	 * The number of different offsets between two columns.
+	 *
+	 * */
+	private int xSpan()
+	{
+		return this.toroidal ? this.xDim : 2 * this.xDim - 1;
+	}
+
+
+	private int ySpan()
+	{
+		return this.toroidal ? this.yDim : 2 * this.yDim - 1;
+	}
+
+
+	/**
+	 * The position in the cache of a parity and offset.
+	 *
+	 * */
+	private int offset(int parity, int dx, int dy)
+	{
+		return (parity * xSpan() + (dx - xFirst())) * ySpan() + (dy - yFirst());
+	}
+}
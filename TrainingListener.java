@@ -0,0 +1,55 @@
+//TrainingListener.java
+/**
+ * Receive progress reports while a SOM is trained.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * The methods are called on the training thread, and
+ * the calls are throttled so that reporting does not slow
+ * training down: progress is reported about ten times a
+ * second and snapshots about twice a second. Graphical
+ * listeners should pass the results on to the event
+ * dispatch thread rather than update components directly.
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+public interface TrainingListener
+{
+	/**
+	 * Report how far training has progressed.
+	 *
+	 * @param iteration The number of iterations completed
+	 * @param iterations The total number of iterations
+	 *
+	 * */
+	void progress(long iteration, long iterations);
+
+
+	/**
+	 * Report the current state of the map.
+	 *
+	 * @param weights A copy of the current weights of
+	 * each node, in the scaled units of the data
+	 * @param hits The number of times each node was the
+	 * best matching unit since the last snapshot
+	 *
+	 * */
+	void snapshot(double [][] weights, int [] hits);
+}
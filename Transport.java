@@ -0,0 +1,99 @@
+//Transport.java
+/**
+ * Connect a distributed training coordinator to its workers.
+ *
+ * Copyright (C) 2016 David Shaub
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * A DistributedSOM only talks to its shards through this
+ * interface, so the same training runs on shards in the
+ * same process (LocalTransport), on worker processes
+ * reached over plain sockets (SocketTransport), or on any
+ * other messaging system that implements it.
+ *
+ * @author David Shaub
+ * @version 1.1.0
+ *
+ * */
+
+import java.io.*;
+import java.util.*;
+public interface Transport extends Closeable
+{
+	/**
+	 * Connect to every shard.
+	 *
+	 * @return One handle for each shard
+	 *
+	 * */
+	List <Shard> connect() throws IOException;
+
+
+	/**
+	 * The coordinator's handle on one shard of the data.
+	 * Calls on one Shard are made by one thread at a time,
+	 * but different shards are called concurrently.
+	 *
+	 * */
+	interface Shard
+	{
+		/**
+		 * Summarize the columns of the shard for scaling.
+		 *
+		 * @return The count, means and sums of squared
+		 * deviations of the columns
+		 *
+		 * */
+		ShardWorker.Stats stats() throws IOException;
+
+
+		/**
+		 * Scale the shard.
+		 *
+		 * @param center The value subtracted from each column
+		 * @param scale The value each centered column is divided by
+		 *
+		 * */
+		void setScaling(double [] center, double [] scale) throws IOException;
+
+
+		/**
+		 * Draw random scaled rows without replacement.
+		 *
+		 * @param count The number of rows wanted
+		 * @param seed The seed for the random numbers
+		 *
+		 * @return At most count rows
+		 *
+		 * */
+		double [][] sample(int count, long seed) throws IOException;
+
+
+		/**
+		 * Assign every row of the shard to its nearest node and
+		 * sum the rows assigned to each node.
+		 *
+		 * @param xDim The X dimension of the map
+		 * @param yDim The Y dimension of the map
+		 * @param weights The scaled weights of the nodes, one
+		 * row of columns after another
+		 *
+		 * @return The partial sums of the shard
+		 *
+		 * */
+		ShardWorker.Partial epoch(int xDim, int yDim, double [] weights) throws IOException;
+	}
+}